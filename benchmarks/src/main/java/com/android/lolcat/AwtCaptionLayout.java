@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineMetrics;
+import java.awt.font.TextLayout;
+
+/**
+ * A pure-Java stand-in for the layout half of CaptionRenderer (default
+ * caption positions and bounding boxes), for benchmarking on a plain
+ * JVM where android.graphics.Paint doesn't exist.
+ *
+ * The arithmetic follows CaptionRenderer.getDefaultPosition() and
+ * computeBoundingBox() step for step, so keep the two in sync; only the
+ * font measurement is different (AWT's instead of Skia's.)
+ */
+final class AwtCaptionLayout {
+
+    // Same as CaptionRenderer
+    static final int FONT_SIZE = 44;
+    static final int TOP_CAPTION = 0;
+    static final int BOTTOM_CAPTION = 1;
+    private static final int FIRST_EXTRA_CAPTION = 2;
+    private static final int EDGE_BORDER = 20;
+
+    private final float mScale;
+    private final Font mFont;
+    private final FontRenderContext mRenderContext;
+    private final int mFontHeight;
+
+    public AwtCaptionLayout(float scale) {
+        mScale = scale;
+        // Typeface.DEFAULT_BOLD's closest AWT equivalent
+        mFont = new Font(Font.SANS_SERIF, Font.BOLD, 1).deriveFont(FONT_SIZE * scale);
+        mRenderContext = new FontRenderContext(null, true /* antialiased */,
+                                               true /* fractional metrics */);
+        LineMetrics metrics = mFont.getLineMetrics("Mg", mRenderContext);
+        mFontHeight = Math.round(metrics.getHeight());
+    }
+
+    /** CaptionTextRenderer.getFontHeight() */
+    public int getFontHeight() {
+        return mFontHeight;
+    }
+
+    /** CaptionTextRenderer.measureText() */
+    public float measureText(String text) {
+        return (float) mFont.getStringBounds(text, mRenderContext).getWidth();
+    }
+
+    /** CaptionTextRenderer.getTextBounds(), as x/y/width/height */
+    public Rectangle getTextBounds(String text) {
+        return new TextLayout(text, mFont, mRenderContext).getBounds().getBounds();
+    }
+
+    /** CaptionRenderer.getDefaultPosition() */
+    public void getDefaultPosition(int index, String text, int width, int height,
+                                   int[] outPosition) {
+        final int edgeBorder = (int) (EDGE_BORDER * mScale);
+        final int fontHeight = getFontHeight();
+        int x, y;
+        if (index == TOP_CAPTION) {
+            x = edgeBorder;
+            y = edgeBorder + (fontHeight * 3 / 4);
+        } else if (index == BOTTOM_CAPTION) {
+            x = width - edgeBorder - (int) measureText(text);
+            y = height - edgeBorder;
+        } else {
+            x = (width - (int) measureText(text)) / 2;
+            int rows = Math.max(1, (height - 2 * edgeBorder) / fontHeight);
+            int row = (rows / 2 + index - FIRST_EXTRA_CAPTION) % rows;
+            y = edgeBorder + (row + 1) * fontHeight;
+        }
+        outPosition[0] = x;
+        outPosition[1] = y;
+    }
+
+    /**
+     * CaptionRenderer.computeBoundingBox()
+     *
+     * @param outBox receives left, top, right and bottom.
+     */
+    public void computeBoundingBox(String text, int x, int y, int[] outBox) {
+        Rectangle bounds = getTextBounds(text);
+        outBox[0] = x + bounds.x;
+        outBox[1] = y + bounds.y;
+        outBox[2] = x + bounds.x + bounds.width;
+        outBox[3] = y + bounds.y + bounds.height;
+    }
+}
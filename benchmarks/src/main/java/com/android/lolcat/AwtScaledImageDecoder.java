@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A pure-Java stand-in for ScaledBitmapDecoder (without the BitmapPool),
+ * for measuring on a plain JVM where BitmapFactory doesn't exist.
+ *
+ * The steps follow ScaledBitmapDecoder.decode() one for one, so keep the
+ * two in sync: read the bounds, pick the sample size with ImageScaling,
+ * decode subsampled (ImageReadParam's source subsampling standing in for
+ * inSampleSize), then rescale to exactly ImageScaling.computeScaledSize()
+ * with a filtered draw.
+ */
+final class AwtScaledImageDecoder {
+
+    private AwtScaledImageDecoder() { }
+
+    /**
+     * @return the scaled-down image, or null if it couldn't be decoded.
+     */
+    public static BufferedImage decode(File file, int maxDimension) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(file);
+        if (in == null) return null;
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true /* seekForwardOnly */, true /* ignoreMetadata */);
+
+                // Pass 1: just read the image dimensions.
+                int origWidth = reader.getWidth(0);
+                int origHeight = reader.getHeight(0);
+
+                // Pass 2: decode the pixels, subsampled.
+                int sampleSize = ImageScaling.computeSampleSize(origWidth, origHeight,
+                                                                maxDimension);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(sampleSize, sampleSize, 0, 0);
+                BufferedImage sampled = reader.read(0, param);
+
+                // Finally, the exact rescale.
+                int[] scaledSize = ImageScaling.computeScaledSize(origWidth, origHeight,
+                                                                  maxDimension);
+                if (sampled.getWidth() == scaledSize[0]
+                        && sampled.getHeight() == scaledSize[1]) {
+                    return sampled;
+                }
+                BufferedImage scaled = new BufferedImage(scaledSize[0], scaledSize[1],
+                                                         BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = scaled.createGraphics();
+                try {
+                    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                                       RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                    g.drawImage(sampled, 0, 0, scaledSize[0], scaledSize[1], null);
+                } finally {
+                    g.dispose();
+                }
+                return scaled;
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The layout pass of LolcatView.renderCaptions(): default positions and
+ * bounding boxes for every caption, plus rebuilding the hit grid from
+ * them.  Text is measured with AwtCaptionLayout standing in for Paint,
+ * so the absolute numbers are the JVM's, not a phone's; what matters is
+ * how they move.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class CaptionLayoutBenchmark {
+
+    // Standard lolcat size
+    private static final int PHOTO_WIDTH = 500;
+    private static final int PHOTO_HEIGHT = 375;
+
+    // LolcatView.TOUCH_POSITION_SLOP
+    private static final int TOUCH_POSITION_SLOP = 40;
+
+    private static final String[] CAPTIONS = {
+        "I CAN HAS", "CHEEZBURGER?", "OH HAI", "IM IN UR PHOTO", "LAYOUTIN UR CAPSHUNS",
+        "INVISIBLE BENCHMARK", "DO NOT WANT", "MONORAIL CAT", "CEILING CAT IZ WATCHIN",
+        "NOM NOM NOM",
+    };
+
+    @Param({ "2", "16", "64" })
+    public int captionCount;
+
+    private AwtCaptionLayout mLayout;
+    private String[] mTexts;
+    private final CaptionHitGrid mHitGrid = new CaptionHitGrid(CaptionHitGrid.DEFAULT_CELL_SIZE);
+    private final int[] mPosition = new int[2];
+    private final int[] mBox = new int[4];
+
+    @Setup
+    public void setUp() {
+        mLayout = new AwtCaptionLayout(1f);
+        mTexts = new String[captionCount];
+        for (int i = 0; i < captionCount; i++) {
+            mTexts[i] = CAPTIONS[i % CAPTIONS.length];
+        }
+    }
+
+    @Benchmark
+    public void defaultPositions(Blackhole bh) {
+        for (int i = 0; i < captionCount; i++) {
+            mLayout.getDefaultPosition(i, mTexts[i], PHOTO_WIDTH, PHOTO_HEIGHT, mPosition);
+            bh.consume(mPosition);
+        }
+    }
+
+    @Benchmark
+    public void boundingBoxes(Blackhole bh) {
+        for (int i = 0; i < captionCount; i++) {
+            mLayout.computeBoundingBox(mTexts[i], 20, 60, mBox);
+            bh.consume(mBox);
+        }
+    }
+
+    /**
+     * Everything renderCaptions() does for a freshly-captioned photo,
+     * short of drawing.
+     */
+    @Benchmark
+    public CaptionHitGrid fullLayout() {
+        mHitGrid.reset(PHOTO_WIDTH, PHOTO_HEIGHT);
+        for (int i = 0; i < captionCount; i++) {
+            mLayout.getDefaultPosition(i, mTexts[i], PHOTO_WIDTH, PHOTO_HEIGHT, mPosition);
+            mLayout.computeBoundingBox(mTexts[i], mPosition[0], mPosition[1], mBox);
+            mHitGrid.set(i,
+                         mBox[0] - TOUCH_POSITION_SLOP, mBox[1] - TOUCH_POSITION_SLOP,
+                         mBox[2] + TOUCH_POSITION_SLOP, mBox[3] + TOUCH_POSITION_SLOP);
+        }
+        return mHitGrid;
+    }
+}
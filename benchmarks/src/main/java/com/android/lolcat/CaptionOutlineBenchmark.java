@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.Kernel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Drawing one caption sprite: CaptionTextRenderer's two-pass outline (a
+ * thick round-joined STROKE, then the FILL on top) against the four
+ * setShadowLayer() passes it replaced.
+ *
+ * Java2D has no shadow layer, so each shadow pass does what Skia's
+ * software renderer does for one: draw the glyphs into an alpha mask,
+ * blur it (radius 2, as the old code asked for), composite it at the
+ * pass's offset, and draw the text itself on top.  Both versions draw
+ * into a sprite-sized ARGB image, as renderSprite() does, and use the
+ * same font as AwtCaptionLayout.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class CaptionOutlineBenchmark {
+
+    // CaptionTextRenderer.DEFAULT_STROKE_WIDTH
+    private static final float STROKE_WIDTH = 6f;
+
+    // The old LolcatView's setShadowLayer() arguments
+    private static final int SHADOW_RADIUS = 2;
+    private static final int SHADOW_OFFSET = 2;
+    private static final int[][] SHADOW_DIRECTIONS = {
+        { SHADOW_OFFSET, SHADOW_OFFSET }, { -SHADOW_OFFSET, SHADOW_OFFSET },
+        { SHADOW_OFFSET, -SHADOW_OFFSET }, { -SHADOW_OFFSET, -SHADOW_OFFSET },
+    };
+
+    @Param({ "I CAN HAS", "OH HAI, IM IN UR BENCHMARK, OUTLININ UR CAPSHUNS" })
+    public String caption;
+
+    // 1 is a caption on the 500px editing copy; 4 is roughly one on a
+    // full-resolution export.
+    @Param({ "1", "4" })
+    public int scale;
+
+    private Shape mGlyphs;  // relative to the sprite's upper-left corner
+    private BufferedImage mSprite;
+    private BufferedImage mMask;
+    private ConvolveOp mBlur;
+    private BasicStroke mStroke;
+
+    @Setup
+    public void setUp() {
+        Font font = new Font(Font.SANS_SERIF, Font.BOLD, 1)
+                .deriveFont(AwtCaptionLayout.FONT_SIZE * (float) scale);
+        FontRenderContext frc = new FontRenderContext(null, true, true);
+        Shape outline = new TextLayout(caption, font, frc).getOutline(null);
+
+        // Room for the outline (or the shadows and their blur) all round,
+        // like renderSprite()'s padding.
+        final int padding = (int) Math.ceil(STROKE_WIDTH * scale / 2)
+                + SHADOW_OFFSET + SHADOW_RADIUS + 1;
+        Rectangle2D bounds = outline.getBounds2D();
+        mGlyphs = AffineTransform.getTranslateInstance(padding - bounds.getX(),
+                                                       padding - bounds.getY())
+                .createTransformedShape(outline);
+        int width = (int) Math.ceil(bounds.getWidth()) + 2 * padding;
+        int height = (int) Math.ceil(bounds.getHeight()) + 2 * padding;
+        mSprite = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        mMask = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+        final int size = 2 * SHADOW_RADIUS + 1;
+        float[] weights = new float[size * size];
+        Arrays.fill(weights, 1f / weights.length);
+        mBlur = new ConvolveOp(new Kernel(size, size, weights), ConvolveOp.EDGE_NO_OP, null);
+
+        mStroke = new BasicStroke(STROKE_WIDTH * scale, BasicStroke.CAP_ROUND,
+                                  BasicStroke.JOIN_ROUND);
+    }
+
+    /** CaptionTextRenderer.draw(): one STROKE pass, one FILL pass. */
+    @Benchmark
+    public BufferedImage strokeAndFill() {
+        Graphics2D g = begin(mSprite);
+        try {
+            g.setStroke(mStroke);
+            g.setColor(Color.BLACK);
+            g.draw(mGlyphs);
+            g.setColor(Color.WHITE);
+            g.fill(mGlyphs);
+        } finally {
+            g.dispose();
+        }
+        return mSprite;
+    }
+
+    /** The old four setShadowLayer() + drawText() passes. */
+    @Benchmark
+    public BufferedImage fourShadowPasses() {
+        Graphics2D g = begin(mSprite);
+        try {
+            for (int[] direction : SHADOW_DIRECTIONS) {
+                // The shadow: a blurred black mask of the glyphs...
+                Graphics2D mg = begin(mMask);
+                try {
+                    mg.setColor(Color.BLACK);
+                    mg.fill(mGlyphs);
+                } finally {
+                    mg.dispose();
+                }
+                BufferedImage shadow = mBlur.filter(mMask, null);
+                g.drawImage(shadow, direction[0], direction[1], null);
+
+                // ...under the text itself.
+                g.setColor(Color.WHITE);
+                g.fill(mGlyphs);
+            }
+        } finally {
+            g.dispose();
+        }
+        return mSprite;
+    }
+
+    /**
+     * Clears the image to transparent and returns an antialiased
+     * Graphics2D for it, like a fresh sprite Bitmap and Canvas.
+     */
+    private static Graphics2D begin(BufferedImage image) {
+        Graphics2D g = image.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setComposite(AlphaComposite.SrcOver);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        return g;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding a finished lolcat, which is most of the time a save takes.
+ *
+ * PngStreamEncoder (which FullResolutionExporter uses) runs as-is.
+ * Bitmap.compress() doesn't exist on the JVM, so LolcatSaver's PNG and
+ * JPEG saves are stood in for by javax.imageio, which is at least the
+ * same zlib and a comparable JPEG encoder.  Each benchmark returns the
+ * encoded size, so size regressions show up next to the times.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class EncodeBenchmark {
+
+    // The usual scaled-down lolcat, and a 4 megapixel full-resolution export
+    @Param({ "500x375", "2304x1728" })
+    public String size;
+
+    private int mWidth;
+    private int mHeight;
+    private int[] mPixels;  // ARGB, row by row
+    private BufferedImage mImage;
+    private ImageWriter mJpegWriter;
+    private ImageWriteParam mJpegParams;
+
+    @Setup
+    public void setUp() {
+        String[] dimensions = size.split("x");
+        mWidth = Integer.parseInt(dimensions[0]);
+        mHeight = Integer.parseInt(dimensions[1]);
+        mPixels = createPhotoLikePixels(mWidth, mHeight);
+        mImage = new BufferedImage(mWidth, mHeight, BufferedImage.TYPE_INT_RGB);
+        mImage.setRGB(0, 0, mWidth, mHeight, mPixels, 0, mWidth);
+
+        mJpegWriter = ImageIO.getImageWritersByFormatName("jpeg").next();
+        mJpegParams = mJpegWriter.getDefaultWriteParam();
+        mJpegParams.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        // SaveFormat.JPEG's default quality
+        mJpegParams.setCompressionQuality(0.9f);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mJpegWriter.dispose();
+    }
+
+    @Benchmark
+    public long pngStreamEncoder() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        PngStreamEncoder png = new PngStreamEncoder(out, mWidth, mHeight);
+        try {
+            int[] row = new int[mWidth];
+            for (int y = 0; y < mHeight; y++) {
+                System.arraycopy(mPixels, y * mWidth, row, 0, mWidth);
+                png.writeRow(row);
+            }
+            png.finish();
+        } finally {
+            png.release();
+        }
+        return out.count;
+    }
+
+    @Benchmark
+    public long imageIoPng() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        ImageIO.write(mImage, "png", out);
+        return out.count;
+    }
+
+    @Benchmark
+    public long imageIoJpeg() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out);
+        try {
+            mJpegWriter.setOutput(imageOut);
+            mJpegWriter.write(null, new IIOImage(mImage, null, null), mJpegParams);
+        } finally {
+            imageOut.close();
+        }
+        return out.count;
+    }
+
+    /**
+     * Something that compresses roughly like a photo with captions on
+     * it: smooth gradients, some sensor noise, and a couple of flat
+     * white-on-black text-sized bands.
+     */
+    private static int[] createPhotoLikePixels(int width, int height) {
+        Random random = new Random(42);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width + random.nextInt(8)) & 0xff;
+                int g = (y * 255 / height + random.nextInt(8)) & 0xff;
+                int b = ((x + y) * 127 / (width + height) + random.nextInt(8)) & 0xff;
+                pixels[y * width + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        int bandHeight = height / 8;
+        for (int band = 0; band < 2; band++) {
+            int top = (band == 0) ? height / 16 : height - height / 16 - bandHeight;
+            for (int y = top; y < top + bandHeight; y++) {
+                for (int x = width / 16; x < width - width / 16; x++) {
+                    boolean stroke = ((x / 6) + (y / 6)) % 3 == 0;
+                    pixels[y * width + x] = stroke ? 0xff000000 : 0xffffffff;
+                }
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Throws the bytes away, just counting them.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) {
+            count += length;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The caption hit test LolcatView.onTouchEvent() does on every
+ * ACTION_DOWN, through CaptionHitGrid, against a plain linear scan of
+ * the boxes (what the grid replaced) as a baseline.  Also measures
+ * moving a box, which happens at the end of every drag.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HitTestBenchmark {
+
+    // Standard lolcat size
+    private static final int PHOTO_WIDTH = 500;
+    private static final int PHOTO_HEIGHT = 375;
+
+    // Rough size of a slop-expanded caption box
+    private static final int MIN_BOX_WIDTH = 120;
+    private static final int MAX_BOX_WIDTH = 400;
+    private static final int BOX_HEIGHT = 115;
+
+    // Touches are cycled through, and land a little outside the photo too.
+    private static final int TOUCH_COUNT = 1024;  // power of two
+    private static final int TOUCH_MARGIN = 50;
+
+    @Param({ "2", "16", "64", "256" })
+    public int captionCount;
+
+    private final CaptionHitGrid mGrid = new CaptionHitGrid(CaptionHitGrid.DEFAULT_CELL_SIZE);
+    private int[] mLefts, mTops, mRights, mBottoms;
+    private int[] mTouchXs, mTouchYs;
+    private int mNextTouch;
+    private int mNextMove;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mLefts = new int[captionCount];
+        mTops = new int[captionCount];
+        mRights = new int[captionCount];
+        mBottoms = new int[captionCount];
+        mGrid.reset(PHOTO_WIDTH, PHOTO_HEIGHT);
+        for (int i = 0; i < captionCount; i++) {
+            int width = MIN_BOX_WIDTH + random.nextInt(MAX_BOX_WIDTH - MIN_BOX_WIDTH);
+            mLefts[i] = random.nextInt(PHOTO_WIDTH) - width / 2;
+            mTops[i] = random.nextInt(PHOTO_HEIGHT) - BOX_HEIGHT / 2;
+            mRights[i] = mLefts[i] + width;
+            mBottoms[i] = mTops[i] + BOX_HEIGHT;
+            mGrid.set(i, mLefts[i], mTops[i], mRights[i], mBottoms[i]);
+        }
+
+        mTouchXs = new int[TOUCH_COUNT];
+        mTouchYs = new int[TOUCH_COUNT];
+        for (int i = 0; i < TOUCH_COUNT; i++) {
+            mTouchXs[i] = random.nextInt(PHOTO_WIDTH + 2 * TOUCH_MARGIN) - TOUCH_MARGIN;
+            mTouchYs[i] = random.nextInt(PHOTO_HEIGHT + 2 * TOUCH_MARGIN) - TOUCH_MARGIN;
+        }
+    }
+
+    @Benchmark
+    public int gridHitTest() {
+        int i = mNextTouch++ & (TOUCH_COUNT - 1);
+        return mGrid.hitTest(mTouchXs[i], mTouchYs[i]);
+    }
+
+    @Benchmark
+    public int linearHitTest() {
+        int i = mNextTouch++ & (TOUCH_COUNT - 1);
+        int x = mTouchXs[i];
+        int y = mTouchYs[i];
+        // Topmost (i.e. last-drawn) caption first, like the grid
+        for (int id = captionCount - 1; id >= 0; id--) {
+            if (x >= mLefts[id] && x < mRights[id] && y >= mTops[id] && y < mBottoms[id]) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Drops a caption somewhere else, like the end of a drag.
+     */
+    @Benchmark
+    public CaptionHitGrid gridMoveCaption() {
+        int id = mNextMove++ % captionCount;
+        int i = mNextTouch++ & (TOUCH_COUNT - 1);
+        int dx = mTouchXs[i] - mLefts[id];
+        int dy = mTouchYs[i] - mTops[id];
+        mLefts[id] += dx;
+        mRights[id] += dx;
+        mTops[id] += dy;
+        mBottoms[id] += dy;
+        mGrid.set(id, mLefts[id], mTops[id], mRights[id], mBottoms[id]);
+        return mGrid;
+    }
+}
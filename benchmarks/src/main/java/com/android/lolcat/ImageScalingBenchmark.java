@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The aspect-ratio math ScaledBitmapDecoder runs for every photo it
+ * loads (see ImageScaling), over a spread of real-world camera sizes in
+ * both orientations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ImageScalingBenchmark {
+
+    // LolcatView.SCALED_IMAGE_MAX_DIMENSION, which we can't compile against
+    static final int LOLCAT_MAX_DIMENSION = 500;
+
+    private static final int[][] CAMERA_SIZES = {
+        { 640, 480 }, { 1600, 1200 }, { 2048, 1536 }, { 3264, 2448 },
+        { 4032, 3024 }, { 4000, 3000 }, { 1920, 1080 }, { 8000, 6000 },
+    };
+    private static final int PHOTO_COUNT = 1024;
+
+    private int[] mWidths;
+    private int[] mHeights;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mWidths = new int[PHOTO_COUNT];
+        mHeights = new int[PHOTO_COUNT];
+        for (int i = 0; i < PHOTO_COUNT; i++) {
+            int[] size = CAMERA_SIZES[random.nextInt(CAMERA_SIZES.length)];
+            boolean portrait = random.nextBoolean();
+            mWidths[i] = portrait ? size[1] : size[0];
+            mHeights[i] = portrait ? size[0] : size[1];
+        }
+    }
+
+    @Benchmark
+    public void computeSampleSize(Blackhole bh) {
+        for (int i = 0; i < PHOTO_COUNT; i++) {
+            bh.consume(ImageScaling.computeSampleSize(mWidths[i], mHeights[i],
+                                                      LOLCAT_MAX_DIMENSION));
+        }
+    }
+
+    @Benchmark
+    public void computeScaledSize(Blackhole bh) {
+        for (int i = 0; i < PHOTO_COUNT; i++) {
+            bh.consume(ImageScaling.computeScaledSize(mWidths[i], mHeights[i],
+                                                      LOLCAT_MAX_DIMENSION));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a 1,000-event caption drag allocates nothing in
+ * CaptionDragTracker, which is what LolcatView.onTouchEvent() hands
+ * every touch to: the image matrix check, the mapping into bitmap
+ * coordinates, the hit test on DOWN, the drag offsets on MOVE (and the
+ * drag box onDraw() reads back), and moving the caption's box on UP.
+ */
+public class CaptionDragAllocationTest {
+
+    private static final int PHOTO_WIDTH = 500;
+    private static final int PHOTO_HEIGHT = 375;
+    private static final int TOUCH_POSITION_SLOP = 40;  // LolcatView's
+    private static final int CAPTION_COUNT = 16;
+    private static final int CAPTION_WIDTH = 180;
+    private static final int CAPTION_HEIGHT = 40;
+
+    // The photo shown at twice its size, below a 100 pixel tall bar:
+    // what ImageView's FIT_CENTER matrix looks like on a tablet.
+    private static final float SCALE = 2f;
+    private static final float TRANSLATE_Y = 100f;
+    private static final float[] IMAGE_MATRIX = {
+        SCALE, 0, 0,
+        0, SCALE, TRANSLATE_Y,
+        0, 0, 1,
+    };
+
+    private static final int EVENTS = 1000;
+    private static final int EVENTS_PER_GESTURE = 100;  // DOWN, 98 MOVEs, UP
+
+    private com.sun.management.ThreadMXBean mThreadBean;
+
+    private final CaptionDragTracker mTracker = new CaptionDragTracker(TOUCH_POSITION_SLOP);
+    private final int[][] mBoxes = new int[CAPTION_COUNT][4];  // left, top, right, bottom
+    private final float[] mMatrixValues = new float[9];  // like LolcatView's
+
+    private float mGestureStartX, mGestureStartY;
+    private long mDragBoxChecksum;  // keeps the drag box reads from being optimized away
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        mThreadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(mThreadBean.isThreadAllocatedMemorySupported());
+        mThreadBean.setThreadAllocatedMemoryEnabled(true);
+
+        // Spread the captions out over the photo, like renderCaptions().
+        mTracker.reset(PHOTO_WIDTH, PHOTO_HEIGHT);
+        for (int i = 0; i < CAPTION_COUNT; i++) {
+            int left = (i * 97) % (PHOTO_WIDTH - CAPTION_WIDTH);
+            int top = (i * 53) % (PHOTO_HEIGHT - CAPTION_HEIGHT);
+            int[] box = mBoxes[i];
+            box[0] = left;
+            box[1] = top;
+            box[2] = left + CAPTION_WIDTH;
+            box[3] = top + CAPTION_HEIGHT;
+            mTracker.setCaptionBox(i, box[0], box[1], box[2], box[3]);
+        }
+    }
+
+    @Test
+    public void dragAllocatesNothing() {
+        // Warm up, so the hit grid's cells have grown to fit and the
+        // code is compiled.
+        for (int i = 0; i < 50; i++) {
+            drag(EVENTS);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = mThreadBean.getThreadAllocatedBytes(threadId);
+        int hits = drag(EVENTS);
+        long allocated = mThreadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals("gestures that grabbed a caption", EVENTS / EVENTS_PER_GESTURE, hits);
+        assertEquals("bytes allocated by " + EVENTS + " events (" + hits + " drags)",
+                     0, allocated);
+    }
+
+    @Test
+    public void dragMovesTheCaptionInBitmapCoordinates() {
+        // Grab the topmost caption by its center, and drag it 30 screen
+        // pixels right and 10 down, i.e. 15 and 5 bitmap pixels.
+        final int top = CAPTION_COUNT - 1;
+        int[] box = mBoxes[top];
+        float x = SCALE * (box[0] + box[2]) / 2;
+        float y = SCALE * (box[1] + box[3]) / 2 + TRANSLATE_Y;
+        mTracker.setImageMatrix(IMAGE_MATRIX);
+        assertEquals(top, mTracker.onDown(x, y));
+        mTracker.onMove(x + 10, y + 4);
+        assertEquals(5, mTracker.getDragOffsetX());
+        assertEquals(2, mTracker.getDragOffsetY());
+        assertEquals(top, mTracker.onUp(x + 30, y + 10));
+        assertEquals(15, mTracker.getDragOffsetX());
+        assertEquals(5, mTracker.getDragOffsetY());
+
+        // The caption's box moved with it: it's grabbed from its new
+        // position, and reported there while dragging.
+        x += 30;
+        y += 10;
+        assertEquals(top, mTracker.onDown(x, y));
+        assertArrayEquals(new int[] { box[0] + 15, box[1] + 5, box[2] + 15, box[3] + 5 },
+                          new int[] { mTracker.getDragBoxLeft(), mTracker.getDragBoxTop(),
+                                      mTracker.getDragBoxRight(), mTracker.getDragBoxBottom() });
+    }
+
+    /**
+     * Replays the specified number of touch events as a series of drags,
+     * each starting on a caption, the way LolcatView.onTouchEvent() and
+     * onDraw() drive mDragTracker.  Each drag goes out and comes back to
+     * where it started, so the layout doesn't drift from one run to the
+     * next.
+     *
+     * @return how many gestures actually grabbed a caption.
+     */
+    private int drag(int events) {
+        int hits = 0;
+        for (int event = 0; event < events; event++) {
+            int gesture = event / EVENTS_PER_GESTURE;
+            int step = event % EVENTS_PER_GESTURE;
+            int distance = Math.min(step, EVENTS_PER_GESTURE - 1 - step);
+            float x = mGestureStartX + distance * 2;
+            float y = mGestureStartY + distance;
+
+            // onTouchEvent(): getImageMatrix().getValues(), every event
+            System.arraycopy(IMAGE_MATRIX, 0, mMatrixValues, 0, 9);
+            mTracker.setImageMatrix(mMatrixValues);
+
+            if (step == 0) {
+                int[] box = mBoxes[(gesture * 7) % CAPTION_COUNT];
+                mGestureStartX = x = SCALE * (box[0] + box[2]) / 2;
+                mGestureStartY = y = SCALE * (box[1] + box[3]) / 2 + TRANSLATE_Y;
+                if (mTracker.onDown(x, y) >= 0) hits++;
+            } else if (step == EVENTS_PER_GESTURE - 1) {
+                int dropped = mTracker.onUp(x, y);
+                if (dropped >= 0) {
+                    // ...and LolcatView moves the Caption itself.
+                    int[] box = mBoxes[dropped];
+                    box[0] += mTracker.getDragOffsetX();
+                    box[1] += mTracker.getDragOffsetY();
+                    box[2] += mTracker.getDragOffsetX();
+                    box[3] += mTracker.getDragOffsetY();
+                }
+            } else if (mTracker.onMove(x, y)) {
+                // onDraw(): the dragged sprite's position and the drag box
+                mDragBoxChecksum += mTracker.getDragOffsetX() + mTracker.getDragOffsetY()
+                        + mTracker.getDragBoxLeft() + mTracker.getDragBoxTop()
+                        + mTracker.getDragBoxRight() + mTracker.getDragBoxBottom();
+            }
+        }
+        return hits;
+    }
+}
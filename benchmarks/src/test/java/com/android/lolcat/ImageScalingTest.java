@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import javax.imageio.ImageIO;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the heap ScaledBitmapDecoder needs for a 12 megapixel photo:
+ * measured, by decoding real JPEG fixtures with AwtScaledImageDecoder,
+ * and worked out, from ImageScaling's arithmetic for every resolution.
+ */
+public class ImageScalingTest {
+
+    // LolcatView.SCALED_IMAGE_MAX_DIMENSION
+    private static final int MAX_DIMENSION = 500;
+
+    private static final int BYTES_PER_PIXEL = 4;  // ARGB_8888
+
+    // The bounds documented on ImageScaling.computeSampleSize(), for a
+    // 4x3 photo: a subsampled Bitmap of at most 1000x750, and a 500x375
+    // result.
+    private static final long MAX_SAMPLED_BYTES_4X3 = 1000L * 750 * BYTES_PER_PIXEL;
+    private static final long MAX_PEAK_BYTES_4X3 =
+            MAX_SAMPLED_BYTES_4X3 + 500L * 375 * BYTES_PER_PIXEL;
+
+    // 12 megapixel camera sizes, including ones that land just under a
+    // power-of-two multiple of MAX_DIMENSION, which are the worst case.
+    private static final int[][] TWELVE_MEGAPIXELS = {
+        { 4000, 3000 }, { 3000, 4000 }, { 4032, 3024 }, { 3968, 2976 }, { 3996, 2997 },
+    };
+
+    // The photos we actually decode: the usual 12 megapixel size, which
+    // subsamples straight to 500x375, and the worst case.
+    private static final int[][] FIXTURE_SIZES = { { 4000, 3000 }, { 3968, 2976 } };
+
+    @ClassRule
+    public static final TemporaryFolder sFixtureFolder = new TemporaryFolder();
+
+    private static File[] sFixtures;
+
+    @BeforeClass
+    public static void writeFixtures() throws IOException {
+        ImageIO.setUseCache(false);
+        sFixtures = new File[FIXTURE_SIZES.length];
+        for (int i = 0; i < FIXTURE_SIZES.length; i++) {
+            sFixtures[i] = writeJpeg(FIXTURE_SIZES[i][0], FIXTURE_SIZES[i][1]);
+        }
+    }
+
+    @Test
+    public void twelveMegapixelDecodeAllocatesWithinDocumentedPeak() throws IOException {
+        com.sun.management.ThreadMXBean threadBean = threadBean();
+
+        for (int i = 0; i < sFixtures.length; i++) {
+            File fixture = sFixtures[i];
+            int width = FIXTURE_SIZES[i][0];
+            int height = FIXTURE_SIZES[i][1];
+            String name = width + "x" + height;
+
+            // Warm up, so we don't count ImageIO's one-time setup.
+            AwtScaledImageDecoder.decode(fixture, MAX_DIMENSION);
+            AwtScaledImageDecoder.decode(fixture, MAX_DIMENSION);
+
+            long threadId = Thread.currentThread().getId();
+            long before = threadBean.getThreadAllocatedBytes(threadId);
+            BufferedImage scaled = AwtScaledImageDecoder.decode(fixture, MAX_DIMENSION);
+            long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+            assertArrayEquals(ImageScaling.computeScaledSize(width, height, MAX_DIMENSION),
+                              new int[] { scaled.getWidth(), scaled.getHeight() });
+
+            // Everything allocated is an upper bound on what was live at
+            // once.  BitmapFactory decodes natively into the Bitmap, but
+            // ImageIO's JPEG reader also allocates about as much again as
+            // the subsampled image in scratch buffers, so allow for that.
+            long peak = peakBytes(width, height);
+            assertTrue(name + ": peak " + peak, peak <= MAX_PEAK_BYTES_4X3);
+            assertTrue(name + ": allocated " + allocated + ", peak " + peak,
+                       allocated <= peak + sampledBytes(width, height));
+            // A full-size decode would be 48MB; we should be nowhere near.
+            assertTrue(name + ": allocated " + allocated,
+                       allocated * 8 < (long) width * height * BYTES_PER_PIXEL);
+        }
+    }
+
+    @Test
+    public void twelveMegapixelDecodeStaysWithinDocumentedPeak() {
+        for (int[] size : TWELVE_MEGAPIXELS) {
+            long sampled = sampledBytes(size[0], size[1]);
+            long peak = peakBytes(size[0], size[1]);
+            String name = size[0] + "x" + size[1];
+            assertTrue(name + ": sampled " + sampled, sampled <= MAX_SAMPLED_BYTES_4X3);
+            assertTrue(name + ": peak " + peak, peak <= MAX_PEAK_BYTES_4X3);
+        }
+    }
+
+    @Test
+    public void fourThousandByThreeThousandDecodesStraightToTargetSize() {
+        assertEquals(8, ImageScaling.computeSampleSize(4000, 3000, MAX_DIMENSION));
+        assertArrayEquals(new int[] { 500, 375 },
+                          ImageScaling.computeSampledSize(4000, 3000, 8));
+        assertEquals(500L * 375 * BYTES_PER_PIXEL, peakBytes(4000, 3000));
+    }
+
+    @Test
+    public void sampledSizeIsBoundedForEveryResolution() {
+        for (int longSide = 1; longSide <= 16000; longSide++) {
+            int shortSide = Math.max(1, longSide * 3 / 4);
+            int sampleSize = ImageScaling.computeSampleSize(longSide, shortSide, MAX_DIMENSION);
+            int[] sampled = ImageScaling.computeSampledSize(longSide, shortSide, sampleSize);
+
+            // At most twice the target...
+            assertTrue(longSide + ": " + sampled[0],
+                       sampled[0] <= Math.max(longSide, MAX_DIMENSION * 2));
+            // ...and never scaled up (unless the photo is smaller than
+            // the target to begin with.)
+            if (longSide >= MAX_DIMENSION) {
+                assertTrue(longSide + ": " + sampled[0], sampled[0] >= MAX_DIMENSION);
+            }
+            assertTrue(longSide + ": " + sampledBytes(longSide, shortSide),
+                       sampledBytes(longSide, shortSide) <= MAX_SAMPLED_BYTES_4X3);
+        }
+    }
+
+    @Test
+    public void scaledSizeKeepsAspectRatio() {
+        assertArrayEquals(new int[] { 500, 375 },
+                          ImageScaling.computeScaledSize(4000, 3000, MAX_DIMENSION));
+        assertArrayEquals(new int[] { 375, 500 },
+                          ImageScaling.computeScaledSize(3000, 4000, MAX_DIMENSION));
+        assertArrayEquals(new int[] { 500, 333 },
+                          ImageScaling.computeScaledSize(4242, 2828, MAX_DIMENSION));
+        assertArrayEquals(new int[] { 500, 1 },
+                          ImageScaling.computeScaledSize(10000, 1, MAX_DIMENSION));
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        return threadBean;
+    }
+
+    /**
+     * Writes a photo-like JPEG (smooth gradients plus some fine detail,
+     * so it compresses like a real one) of the specified size.
+     */
+    private static File writeJpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / width;
+                int g = y * 255 / height;
+                int b = ((x * 7) ^ (y * 13)) & 0xff;
+                pixels[y * width + x] = (r << 16) | (g << 8) | b;
+            }
+        }
+        File file = sFixtureFolder.newFile(width + "x" + height + ".jpg");
+        assertTrue(ImageIO.write(image, "jpg", file));
+        return file;
+    }
+
+    /** The decoder's peak: the subsampled Bitmap, plus the rescaled one if any. */
+    private static long peakBytes(int width, int height) {
+        int sampleSize = ImageScaling.computeSampleSize(width, height, MAX_DIMENSION);
+        int[] sampled = ImageScaling.computeSampledSize(width, height, sampleSize);
+        int[] scaled = ImageScaling.computeScaledSize(width, height, MAX_DIMENSION);
+        if (sampled[0] == scaled[0] && sampled[1] == scaled[1]) {
+            return sampledBytes(width, height);
+        }
+        return sampledBytes(width, height) + (long) scaled[0] * scaled[1] * BYTES_PER_PIXEL;
+    }
+
+    private static long sampledBytes(int width, int height) {
+        int sampleSize = ImageScaling.computeSampleSize(width, height, MAX_DIMENSION);
+        int[] sampled = ImageScaling.computeSampledSize(width, height, sampleSize);
+        return (long) sampled[0] * sampled[1] * BYTES_PER_PIXEL;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Environment;
+import android.support.v4.app.NotificationCompat;
+
+/**
+ * Makes a batch of lolcats from a manifest (see BatchManifest), in the
+ * background, with progress in a notification.  For example:
+ *
+ *     adb root
+ *     adb shell am startservice -a com.android.lolcat.action.BATCH \
+ *         -n com.android.lolcat/.BatchLolcatService -d file:///sdcard/cats.csv
+ *
+ * The service isn't exported, since it would otherwise let any app read
+ * any Uri this app can, and write files to shared storage, on its
+ * behalf; so it can only be started from within the app, or from a root
+ * shell.
+ *
+ * The lolcats go in the usual directory on the SD card, named after the
+ * batch, along with a CSV report of which entries failed and why.  The
+ * output format can be chosen with the EXTRA_MIME_TYPE extra (see
+ * SaveFormat); the default is PNG.
+ *
+ * Batches are queued, and run one at a time (see IntentService); the
+ * lolcats within a batch are made in parallel (see LolcatBatch.)
+ */
+public class BatchLolcatService extends IntentService {
+    private static final String TAG = "BatchLolcatService";
+
+    public static final String ACTION_BATCH = "com.android.lolcat.action.BATCH";
+    public static final String EXTRA_MIME_TYPE = "com.android.lolcat.extra.MIME_TYPE";
+
+    private static final int NOTIFICATION_ID = 1;
+
+    private NotificationManager mNotificationManager;
+    private int mLastProgressPercent;  // guarded by this
+
+    public BatchLolcatService() {
+        super(TAG);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mNotificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Uri manifestUri = intent.getData();
+        if (LolcatLog.V) LolcatLog.v(TAG, "onHandleIntent: manifest " + manifestUri);
+        if (manifestUri == null) {
+            LolcatLog.w(TAG, "No manifest given; ignoring " + intent);
+            return;
+        }
+
+        SaveFormat format = SaveFormat.fromMimeType(intent.getStringExtra(EXTRA_MIME_TYPE));
+        if (format == null || !format.isSupported()) {
+            format = SaveFormat.PNG;
+        }
+
+        List<BatchManifest.Entry> entries;
+        try {
+            entries = BatchManifest.read(getContentResolver(), manifestUri);
+        } catch (IOException e) {
+            LolcatLog.w(TAG, "Couldn't read manifest " + manifestUri, e);
+            notifyDone(getString(R.string.lolcat_batch_bad_manifest));
+            return;
+        }
+
+        File directory = new File(Environment.getExternalStorageDirectory(),
+                                  LolcatSaver.LOLCAT_SAVE_DIRECTORY);
+        if (!LolcatSaver.isExternalStorageWritable()
+                || !(directory.isDirectory() || directory.mkdirs())) {
+            notifyDone(getString(R.string.lolcat_save_failed));
+            return;
+        }
+
+        synchronized (this) {
+            mLastProgressPercent = -1;
+        }
+        notifyProgress(0, 0, entries.size());
+
+        LolcatBatch batch = new LolcatBatch(this, LolcatView.sBitmapPool,
+                                            format, format.getDefaultQuality(), directory,
+                                            "batch-" + System.currentTimeMillis(),
+                                            LolcatBatch.defaultThreadCount());
+        LolcatBatch.Report report;
+        try {
+            report = batch.run(entries, new LolcatBatch.Listener() {
+                    public void onProgress(int finished, int failed, int total) {
+                        notifyProgress(finished, failed, total);
+                    }
+                });
+        } catch (InterruptedException e) {
+            LolcatLog.w(TAG, "Batch interrupted: " + manifestUri);
+            mNotificationManager.cancel(NOTIFICATION_ID);
+            return;
+        }
+        if (LolcatLog.V) LolcatLog.v(TAG, "Batch " + manifestUri + " finished: " + report);
+
+        notifyDone(getString(R.string.lolcat_batch_finished,
+                             report.succeeded, report.failures.size()));
+    }
+
+    /**
+     * Updates the progress notification, if the percentage has gone up.
+     * (Called on LolcatBatch's worker threads, so updates can arrive out
+     * of order.)
+     */
+    private void notifyProgress(int finished, int failed, int total) {
+        int percent = (total > 0) ? finished * 100 / total : 0;
+        synchronized (this) {
+            if (percent <= mLastProgressPercent) return;
+            mLastProgressPercent = percent;
+        }
+        mNotificationManager.notify(NOTIFICATION_ID, newNotificationBuilder()
+                .setContentText(getString(R.string.lolcat_batch_progress,
+                                          finished, total, failed))
+                .setProgress(total, finished, false)
+                .setOngoing(true)
+                .build());
+    }
+
+    private void notifyDone(String text) {
+        mNotificationManager.notify(NOTIFICATION_ID, newNotificationBuilder()
+                .setContentText(text)
+                .setAutoCancel(true)
+                .build());
+    }
+
+    private NotificationCompat.Builder newNotificationBuilder() {
+        // Notifications need a content intent before Honeycomb; this one
+        // doesn't do anything.
+        PendingIntent intent = PendingIntent.getActivity(this, 0, new Intent(), 0);
+        return new NotificationCompat.Builder(this)
+                .setSmallIcon(R.drawable.app_icon)
+                .setContentTitle(getString(R.string.lolcat_batch_title))
+                .setContentIntent(intent);
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+/**
+ * The list of lolcats to make in a batch (see BatchLolcatService): for
+ * each one, the photo and its top and bottom captions, and optionally
+ * where the captions go.
+ *
+ * A manifest is either CSV, one lolcat per line:
+ *
+ *     # uri,top,bottom,topX,topY,bottomX,bottomY
+ *     file:///sdcard/DCIM/cat1.jpg,I CAN HAS,CHEEZBURGER
+ *     content://media/external/images/media/42,"OH HAI, I'M IN UR",MANIFEST,20,60,200,360
+ *
+ * or a JSON array of objects with the same keys:
+ *
+ *     [ { "uri": "file:///sdcard/DCIM/cat1.jpg", "top": "I CAN HAS",
+ *         "bottom": "CHEEZBURGER", "topX": 20, "topY": 60 } ]
+ *
+ * In CSV, fields containing commas or quotes must be quoted, with quotes
+ * doubled; blank lines and lines starting with '#' are skipped, as is a
+ * header line starting with "uri,".  Positions are the left end of the
+ * caption's baseline, in the coordinates of the photo scaled down to
+ * LolcatView.SCALED_IMAGE_MAX_DIMENSION (like the positions in the
+ * editor); captions without one go where the editor would put them.
+ *
+ * A malformed line or element doesn't spoil the whole batch: it becomes
+ * an Entry with an error, which is reported along with the lolcats that
+ * failed to render.
+ */
+final class BatchManifest {
+    private static final String TAG = "BatchManifest";
+
+    // CSV columns, and JSON keys
+    private static final String[] COLUMNS = {
+        "uri", "top", "bottom", "topX", "topY", "bottomX", "bottomY"
+    };
+    private static final int URI = 0;
+    private static final int TOP = 1;
+    private static final int BOTTOM = 2;
+    private static final int TOP_X = 3;
+    private static final int TOP_Y = 4;
+    private static final int BOTTOM_X = 5;
+    private static final int BOTTOM_Y = 6;
+
+    /**
+     * One lolcat to make.
+     */
+    static final class Entry {
+        final int number;  // line number (CSV) or 1-based array index (JSON)
+        final String uri;  // as written in the manifest
+        final CaptionDocument captions;  // null if the entry is malformed
+        final String error;  // why the entry is malformed, or null
+
+        Entry(int number, String uri, CaptionDocument captions, String error) {
+            this.number = number;
+            this.uri = uri;
+            this.captions = captions;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry[#" + number + " " + uri
+                    + ((error != null) ? "; error: " + error : "; " + captions) + "]";
+        }
+    }
+
+    private BatchManifest() { }
+
+    /**
+     * Reads and parses the manifest at the specified Uri.  (JSON if it
+     * starts with '[', otherwise CSV.)
+     *
+     * @throws IOException if the manifest couldn't be read at all.
+     */
+    public static List<Entry> read(ContentResolver resolver, Uri manifestUri) throws IOException {
+        InputStream in = resolver.openInputStream(manifestUri);
+        if (in == null) throw new IOException("Couldn't open " + manifestUri);
+        String text;
+        try {
+            text = readFully(new InputStreamReader(in, "UTF-8"));
+        } finally {
+            in.close();
+        }
+        List<Entry> entries = text.trim().startsWith("[") ? parseJson(text) : parseCsv(text);
+        if (LolcatLog.V) LolcatLog.v(TAG, "read " + entries.size() + " entries from "
+                                     + manifestUri);
+        return entries;
+    }
+
+    static List<Entry> parseCsv(String text) {
+        List<Entry> entries = new ArrayList<Entry>();
+        String[] lines = text.split("\r?\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.length() == 0 || line.startsWith("#")) continue;
+            if (line.startsWith(COLUMNS[URI] + ",")) continue;  // header
+
+            String[] fields = new String[COLUMNS.length];
+            String error = splitCsvLine(line, fields);
+            entries.add((error != null)
+                        ? new Entry(i + 1, fields[URI], null, error)
+                        : newEntry(i + 1, fields));
+        }
+        return entries;
+    }
+
+    static List<Entry> parseJson(String text) {
+        List<Entry> entries = new ArrayList<Entry>();
+        JSONArray array;
+        try {
+            array = new JSONArray(text);
+        } catch (JSONException e) {
+            // Nothing we can salvage.
+            entries.add(new Entry(1, null, null, "Malformed JSON: " + e.getMessage()));
+            return entries;
+        }
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject object = array.optJSONObject(i);
+            if (object == null) {
+                entries.add(new Entry(i + 1, null, null, "Not a JSON object"));
+                continue;
+            }
+            String[] fields = new String[COLUMNS.length];
+            for (int col = 0; col < COLUMNS.length; col++) {
+                // (optString() turns numbers into strings for us.)
+                fields[col] = object.optString(COLUMNS[col], null);
+            }
+            entries.add(newEntry(i + 1, fields));
+        }
+        return entries;
+    }
+
+    /**
+     * Builds an Entry from its (possibly missing) fields, checking them.
+     */
+    private static Entry newEntry(int number, String[] fields) {
+        String uri = fields[URI];
+        if (isEmpty(uri)) {
+            return new Entry(number, uri, null, "No photo uri");
+        }
+        if (isEmpty(fields[TOP]) && isEmpty(fields[BOTTOM])) {
+            return new Entry(number, uri, null, "No captions");
+        }
+
+        CaptionDocument captions =
+                new CaptionDocument(CaptionTextRenderer.DEFAULT_STROKE_WIDTH, 2);
+        try {
+            setCaption(captions, CaptionRenderer.TOP_CAPTION, fields[TOP],
+                       fields[TOP_X], fields[TOP_Y]);
+            setCaption(captions, CaptionRenderer.BOTTOM_CAPTION, fields[BOTTOM],
+                       fields[BOTTOM_X], fields[BOTTOM_Y]);
+        } catch (NumberFormatException e) {
+            return new Entry(number, uri, null, "Bad caption position: " + e.getMessage());
+        }
+        return new Entry(number, uri, captions, null);
+    }
+
+    private static void setCaption(CaptionDocument captions, int index, String text,
+                                   String x, String y) {
+        text = (text != null) ? text : "";
+        if (isEmpty(x) && isEmpty(y)) {
+            captions.setCaption(index, text, false, 0, 0, null);
+        } else if (isEmpty(x) || isEmpty(y)) {
+            throw new NumberFormatException("need both x and y");
+        } else {
+            captions.setCaption(index, text, true,
+                                Integer.parseInt(x.trim()), Integer.parseInt(y.trim()), null);
+        }
+    }
+
+    /**
+     * Splits one line of CSV into fields (extra fields are ignored.)
+     *
+     * @return an error message, or null if the line is well-formed.
+     */
+    private static String splitCsvLine(String line, String[] fields) {
+        StringBuilder field = new StringBuilder();
+        int col = 0;
+        int i = 0;
+        final int length = line.length();
+        while (true) {
+            field.setLength(0);
+            if (i < length && line.charAt(i) == '"') {
+                // Quoted field, with "" for a literal quote
+                i++;
+                while (true) {
+                    if (i >= length) return "Unterminated quote in column " + (col + 1);
+                    char c = line.charAt(i++);
+                    if (c == '"') {
+                        if (i < length && line.charAt(i) == '"') {
+                            field.append('"');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                }
+                if (i < length && line.charAt(i) != ',') {
+                    return "Junk after quoted field in column " + (col + 1);
+                }
+            } else {
+                while (i < length && line.charAt(i) != ',') {
+                    field.append(line.charAt(i++));
+                }
+            }
+            if (col < fields.length) {
+                fields[col] = field.toString().trim();
+            }
+            col++;
+            if (i >= length) return null;
+            i++;  // skip the comma
+        }
+    }
+
+    private static String readFully(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[4096];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            sb.append(buffer, 0, count);
+        }
+        return sb.toString();
+    }
+
+    private static boolean isEmpty(String s) {
+        return s == null || s.trim().length() == 0;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.util.LinkedList;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * A pool of mutable Bitmaps that are no longer in use, so that their
+ * pixel buffers can be reused instead of allocating a fresh Bitmap for
+ * every photo and every save (and waiting for the GC to free the old ones.)
+ *
+ * Pooled Bitmaps are bucketed by their allocation size.  There are two
+ * ways to get one back out:
+ *
+ * - get() returns a Bitmap of exactly the requested dimensions, cleared
+ *   to transparent, e.g. for drawing into with a Canvas.
+ *
+ * - getForInBitmap() returns a Bitmap that BitmapFactory can decode into
+ *   (see BitmapFactory.Options.inBitmap.)  On KitKat and later any
+ *   Bitmap that's big enough will do; before that inBitmap only works at
+ *   all if the decoded image is exactly the same size, so callers should
+ *   use get() there instead.
+ *
+ * The pool holds at most maxBytes worth of Bitmaps; beyond that, the
+ * oldest ones are recycled.  All methods are thread-safe.
+ */
+final class BitmapPool {
+    private static final String TAG = "BitmapPool";
+
+    // Build.VERSION_CODES.KITKAT, which we don't compile against
+    private static final int KITKAT = 19;
+
+    // Don't hand out a buffer for inBitmap that's more than this many
+    // times bigger than needed; that would just waste memory.
+    private static final int MAX_INBITMAP_SIZE_RATIO = 2;
+
+    private final int mMaxBytes;
+    private int mCurrentBytes;
+
+    // Allocation size => pooled Bitmaps of that size, oldest first
+    private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets =
+            new TreeMap<Integer, LinkedList<Bitmap>>();
+    // Every pooled Bitmap, oldest first, for eviction
+    private final LinkedList<Bitmap> mLruList = new LinkedList<Bitmap>();
+
+    private int mHits, mMisses;
+
+    public BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return true if BitmapFactory can decode into a pooled Bitmap of a
+     *         different size from the image (see getForInBitmap().)
+     */
+    public static boolean canReuseAnySizeForDecode() {
+        return Build.VERSION.SDK_INT >= KITKAT;
+    }
+
+    /**
+     * @return a Bitmap of exactly the specified size and config, with all
+     *         its pixels cleared to transparent.  If there isn't one in the
+     *         pool, a new one is allocated.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = takeExact(width, height, config);
+        if (bitmap != null) {
+            bitmap.eraseColor(0);
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * @return a pooled Bitmap with room for at least byteCount bytes of
+     *         pixels, for use as BitmapFactory.Options.inBitmap, or null if
+     *         there's no suitable one.  The caller owns the Bitmap, and
+     *         should put() it back if the decode doesn't end up using it.
+     */
+    public synchronized Bitmap getForInBitmap(int byteCount) {
+        if (!canReuseAnySizeForDecode()) return null;
+        SortedMap<Integer, LinkedList<Bitmap>> bigEnough = mBuckets.tailMap(byteCount);
+        if (bigEnough.isEmpty() || bigEnough.firstKey() > byteCount * MAX_INBITMAP_SIZE_RATIO) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        int size = bigEnough.firstKey();
+        return remove(size, mBuckets.get(size).getFirst());
+    }
+
+    /**
+     * Returns a Bitmap that's no longer in use to the pool.  Immutable
+     * Bitmaps can't be reused, so they're just recycled.  The caller must
+     * not touch the Bitmap after this.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+        if (!bitmap.isMutable()) {
+            bitmap.recycle();
+            return;
+        }
+        int size = sizeOf(bitmap);
+        if (size > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        if (mLruList.contains(bitmap)) {
+            LolcatLog.w(TAG, "put: already pooled: " + bitmap);
+            return;
+        }
+
+        LinkedList<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new LinkedList<Bitmap>();
+            mBuckets.put(size, bucket);
+        }
+        bucket.addLast(bitmap);
+        mLruList.addLast(bitmap);
+        mCurrentBytes += size;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Recycles every pooled Bitmap.
+     */
+    public void evictAll() {
+        trimToSize(0);
+    }
+
+    private synchronized Bitmap takeExact(int width, int height, Bitmap.Config config) {
+        LinkedList<Bitmap> bucket = mBuckets.get(width * height * bytesPerPixel(config));
+        if (bucket != null) {
+            for (Bitmap b : bucket) {
+                if (b.getWidth() == width && b.getHeight() == height
+                        && b.getConfig() == config) {
+                    mHits++;
+                    return remove(sizeOf(b), b);
+                }
+            }
+        }
+        mMisses++;
+        return null;
+    }
+
+    private synchronized void trimToSize(int maxBytes) {
+        while (mCurrentBytes > maxBytes && !mLruList.isEmpty()) {
+            Bitmap oldest = mLruList.getFirst();
+            remove(sizeOf(oldest), oldest);
+            if (LolcatLog.V) LolcatLog.v(TAG, "evicting " + oldest);
+            oldest.recycle();
+        }
+    }
+
+    private Bitmap remove(int size, Bitmap bitmap) {
+        LinkedList<Bitmap> bucket = mBuckets.get(size);
+        bucket.remove(bitmap);
+        if (bucket.isEmpty()) {
+            mBuckets.remove(size);
+        }
+        mLruList.remove(bitmap);
+        mCurrentBytes -= size;
+        return bitmap;
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        // On KitKat, a Bitmap that was decoded into (via inBitmap) may
+        // have a bigger allocation than this, but we can't ask for it
+        // without compiling against KitKat.  Underestimating just means
+        // we're a little conservative about reusing it.
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) return 1;
+        if (config == Bitmap.Config.ARGB_8888) return 4;
+        return 2;  // RGB_565, ARGB_4444
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[" + mLruList.size() + " bitmaps, " + mCurrentBytes + "/" + mMaxBytes
+                + " bytes; hits " + mHits + ", misses " + mMisses + "]";
+    }
+}
@@ -1,24 +1,45 @@
 package com.android.lolcat;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.holoeverywhere.app.AlertDialog;
 
 import org.holoeverywhere.app.Dialog;
 import android.content.DialogInterface;
 import android.os.Bundle;
 import org.holoeverywhere.app.DialogFragment;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.EditText;
+import android.widget.LinearLayout;
 
+/**
+ * Edits all of a lolcat's captions: the top and bottom ones, plus any
+ * number of extra ones (added with the "Add another caption" button, and
+ * removed by emptying them.)
+ *
+ * The captions come in (via the CAPTIONS_KEY argument) and go back out
+ * (via CaptionDialogListener) as an array in LolcatView's caption order,
+ * top and bottom first.  Emptied captions stay in the array as "", so
+ * the indexes still line up with the LolcatView's.
+ */
 public class CaptionDialog extends DialogFragment {
 	
 	private static final String TAG = "LolcatActivity.CaptionDialog";
-	
-	private String mTop, mBottom;
+
+	// Argument (and saved state) key for the String[] of captions
+	static final String CAPTIONS_KEY = "captions";
+
+	// The top and bottom captions, which are always there
+	private static final int MIN_CAPTIONS = 2;
+
+	private EditText mTopText, mBottomText;
+	private LinearLayout mExtraCaptions;
+	private final List<EditText> mExtraTexts = new ArrayList<EditText>();
 	
 	public interface CaptionDialogListener {
-		void onFinishEditCaptions(String topText, String bottomText);
+		void onFinishEditCaptions(String[] captions);
 	}
 	
 	public CaptionDialog() { }
@@ -38,30 +59,34 @@ public class CaptionDialog extends DialogFragment {
 	public Dialog onCreateDialog(Bundle savedInstanceState) {
 		LayoutInflater factory = LayoutInflater.from(getActivity());
 		final View textEntryView = factory.inflate(R.layout.lolcat_caption_dialog, null);
+		mTopText = (EditText) textEntryView.findViewById(R.id.top_edittext);
+		mBottomText = (EditText) textEntryView.findViewById(R.id.bottom_edittext);
+		mExtraCaptions = (LinearLayout) textEntryView.findViewById(R.id.extra_captions);
+		mExtraTexts.clear();
 		
-		Bundle b = getArguments();
-		if (b != null) {
-			if (b.containsKey("topText")) {
-				EditText top = (EditText) textEntryView.findViewById(R.id.top_edittext);
-				top.setText(b.getString("topText"));
-			}
-			if (b.containsKey("bottomText")) {
-				EditText bottom = (EditText) textEntryView.findViewById(R.id.bottom_edittext);
-				bottom.setText(b.getString("bottomText"));
-			}
-		}
-		
+		// What the user had typed so far beats what we were started with.
+		String[] captions = null;
 		if (savedInstanceState != null) {
-			if (savedInstanceState.containsKey("topText")) {
-				EditText top = (EditText) textEntryView.findViewById(R.id.top_edittext);
-				top.setText(savedInstanceState.getString("topText"));
-			}
-			if (savedInstanceState.containsKey("bottomText")) {
-				EditText bottom = (EditText) textEntryView.findViewById(R.id.bottom_edittext);
-				bottom.setText(savedInstanceState.getString("bottomText"));
+			captions = savedInstanceState.getStringArray(CAPTIONS_KEY);
+		}
+		if (captions == null && getArguments() != null) {
+			captions = getArguments().getStringArray(CAPTIONS_KEY);
+		}
+		if (captions != null) {
+			if (captions.length > 0) mTopText.setText(captions[0]);
+			if (captions.length > 1) mBottomText.setText(captions[1]);
+			for (int i = MIN_CAPTIONS; i < captions.length; i++) {
+				addExtraCaption(captions[i]);
 			}
 		}
-		((EditText) textEntryView.findViewById(R.id.top_edittext)).requestFocus();
+		
+		textEntryView.findViewById(R.id.add_caption_button).setOnClickListener(
+				new View.OnClickListener() {
+					public void onClick(View v) {
+						addExtraCaption("").requestFocus();
+					}
+				});
+		mTopText.requestFocus();
 		
 		return new AlertDialog.Builder(getActivity())
         .setTitle(R.string.lolcat_caption_dialog_title)
@@ -71,16 +96,10 @@ public class CaptionDialog extends DialogFragment {
                 R.string.lolcat_caption_dialog_ok,
                 new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int whichButton) {
-                        Log.i(TAG, "Caption dialog: OK...");
-                        EditText topText = 
-                        		(EditText) textEntryView.findViewById(R.id.top_edittext);
-                        EditText bottomText = 
-                        		(EditText) textEntryView.findViewById(R.id.bottom_edittext);
+                        if (LolcatLog.V) LolcatLog.v(TAG, "Caption dialog: OK...");
                         CaptionDialogListener activity =
                         		(CaptionDialogListener) getActivity();
-                        mTop = topText.getText().toString();
-                        mBottom = bottomText.getText().toString();
-                        activity.onFinishEditCaptions(mTop, mBottom);
+                        activity.onFinishEditCaptions(getCaptions());
                         dialog.dismiss();
                     }
                 })
@@ -88,7 +107,7 @@ public class CaptionDialog extends DialogFragment {
                 R.string.lolcat_caption_dialog_cancel,
                 new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int whichButton) {
-                        Log.i(TAG, "Caption dialog: CANCEL...");
+                        if (LolcatLog.V) LolcatLog.v(TAG, "Caption dialog: CANCEL...");
                         dialog.dismiss();
                         // Nothing to do here (for now at least)
                     }
@@ -96,10 +115,36 @@ public class CaptionDialog extends DialogFragment {
         .create();
 	}
 
+	/**
+	 * Adds an EditText for one more caption below the others.
+	 */
+	private EditText addExtraCaption(String text) {
+		EditText extra = (EditText) LayoutInflater.from(getActivity())
+				.inflate(R.layout.lolcat_caption_dialog_extra, mExtraCaptions, false);
+		extra.setText(text);
+		mExtraCaptions.addView(extra);
+		mExtraTexts.add(extra);
+		return extra;
+	}
+
+	/**
+	 * @return the text of every caption field, top and bottom first.
+	 */
+	private String[] getCaptions() {
+		String[] captions = new String[MIN_CAPTIONS + mExtraTexts.size()];
+		captions[0] = mTopText.getText().toString();
+		captions[1] = mBottomText.getText().toString();
+		for (int i = 0; i < mExtraTexts.size(); i++) {
+			captions[MIN_CAPTIONS + i] = mExtraTexts.get(i).getText().toString();
+		}
+		return captions;
+	}
+
 	@Override
 	public void onSaveInstanceState(Bundle outState) {
-		if (mTop != null) outState.putString("topText", mTop);
-		if (mBottom != null) outState.putString("bottomText", mBottom);
+		// The extra captions' EditTexts don't have ids of their own, so
+		// they can't save their state; save everything here instead.
+		if (mTopText != null) outState.putStringArray(CAPTIONS_KEY, getCaptions());
 		super.onSaveInstanceState(outState);
 	}
 	
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import android.graphics.Rect;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * A snapshot of all of a LolcatView's captions (text, positions and
+ * bounding boxes) plus the caption style, used to save and restore the
+ * LolcatView's state across orientation changes.
+ *
+ * Everything but the text is packed into a single int array, so the
+ * whole document parcels as one float, one int[] and the strings, and
+ * LolcatView.setCaptionDocument() can restore it in a single pass
+ * (including the bounding boxes, which it would otherwise have to
+ * re-measure.)
+ *
+ * This has to be public, like any Parcelable: when a saved Bundle is
+ * unparcelled in a new process, CREATOR is looked up by reflection.
+ */
+public final class CaptionDocument implements Parcelable {
+
+    // Per-caption layout of mData
+    private static final int FLAGS = 0;
+    private static final int X = 1;
+    private static final int Y = 2;
+    private static final int BOX_LEFT = 3;
+    private static final int BOX_TOP = 4;
+    private static final int BOX_RIGHT = 5;
+    private static final int BOX_BOTTOM = 6;
+    private static final int INTS_PER_CAPTION = 7;
+
+    private static final int FLAG_POSITION_VALID = 1 << 0;
+    private static final int FLAG_HAS_BOUNDING_BOX = 1 << 1;
+
+    private final float mStrokeWidth;
+    private final String[] mTexts;
+    private final int[] mData;
+
+    /**
+     * Creates a document with room for the specified number of
+     * captions, all empty; fill it in with setCaption().
+     */
+    CaptionDocument(float strokeWidth, int captionCount) {
+        this(strokeWidth, new String[captionCount], new int[captionCount * INTS_PER_CAPTION]);
+    }
+
+    private CaptionDocument(float strokeWidth, String[] texts, int[] data) {
+        mStrokeWidth = strokeWidth;
+        mTexts = texts;
+        mData = data;
+    }
+
+    /**
+     * @param hasPosition false if the caption hasn't been positioned yet,
+     *        in which case x and y are ignored.
+     * @param boundingBox the caption's bounding box, or null if it hasn't
+     *        been computed yet.
+     */
+    void setCaption(int index, String text, boolean hasPosition, int x, int y,
+                    Rect boundingBox) {
+        mTexts[index] = text;
+        int base = index * INTS_PER_CAPTION;
+        int flags = 0;
+        if (hasPosition) {
+            flags |= FLAG_POSITION_VALID;
+            mData[base + X] = x;
+            mData[base + Y] = y;
+        }
+        if (boundingBox != null) {
+            flags |= FLAG_HAS_BOUNDING_BOX;
+            mData[base + BOX_LEFT] = boundingBox.left;
+            mData[base + BOX_TOP] = boundingBox.top;
+            mData[base + BOX_RIGHT] = boundingBox.right;
+            mData[base + BOX_BOTTOM] = boundingBox.bottom;
+        }
+        mData[base + FLAGS] = flags;
+    }
+
+    public float getStrokeWidth() {
+        return mStrokeWidth;
+    }
+
+    public int getCaptionCount() {
+        return mTexts.length;
+    }
+
+    public String getText(int index) {
+        return mTexts[index];
+    }
+
+    public boolean hasPosition(int index) {
+        return (mData[index * INTS_PER_CAPTION + FLAGS] & FLAG_POSITION_VALID) != 0;
+    }
+
+    public int getX(int index) {
+        return mData[index * INTS_PER_CAPTION + X];
+    }
+
+    public int getY(int index) {
+        return mData[index * INTS_PER_CAPTION + Y];
+    }
+
+    /**
+     * @return the caption's bounding box, or null if it wasn't saved.
+     */
+    public Rect getBoundingBox(int index) {
+        int base = index * INTS_PER_CAPTION;
+        if ((mData[base + FLAGS] & FLAG_HAS_BOUNDING_BOX) == 0) return null;
+        return new Rect(mData[base + BOX_LEFT], mData[base + BOX_TOP],
+                        mData[base + BOX_RIGHT], mData[base + BOX_BOTTOM]);
+    }
+
+    public int describeContents() {
+        return 0;
+    }
+
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeFloat(mStrokeWidth);
+        dest.writeInt(mTexts.length);
+        for (String text : mTexts) {
+            dest.writeString(text);
+        }
+        dest.writeIntArray(mData);
+    }
+
+    public static final Parcelable.Creator<CaptionDocument> CREATOR =
+            new Parcelable.Creator<CaptionDocument>() {
+                public CaptionDocument createFromParcel(Parcel in) {
+                    float strokeWidth = in.readFloat();
+                    String[] texts = new String[in.readInt()];
+                    for (int i = 0; i < texts.length; i++) {
+                        texts[i] = in.readString();
+                    }
+                    int[] data = in.createIntArray();
+                    return new CaptionDocument(strokeWidth, texts, data);
+                }
+
+                public CaptionDocument[] newArray(int size) {
+                    return new CaptionDocument[size];
+                }
+            };
+
+    @Override
+    public String toString() {
+        return "CaptionDocument[" + mTexts.length + " captions; stroke " + mStrokeWidth + "]";
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+/**
+ * The touch-handling half of LolcatView: maps touches from view into
+ * bitmap coordinates, finds the caption under a touch, and keeps track
+ * of a caption being dragged around.
+ *
+ * LolcatView tells it where the captions' bounding boxes are (see
+ * setCaptionBox()) and what the ImageView's matrix is, feeds it the
+ * touch events, and draws whatever it reports.  It's kept free of any
+ * Android dependencies so that it can be tested on a plain JVM (see
+ * benchmarks/), and like CaptionHitGrid, it never allocates once its
+ * arrays have grown to fit the captions.  Not thread-safe; LolcatView
+ * only uses it on the UI thread.
+ */
+final class CaptionDragTracker {
+
+    // Indexes into a 3x3 matrix's values, as in android.graphics.Matrix
+    static final int MSCALE_X = 0, MSKEW_X = 1, MTRANS_X = 2;
+    static final int MSKEW_Y = 3, MSCALE_Y = 4, MTRANS_Y = 5;
+    static final int MPERSP_0 = 6, MPERSP_1 = 7, MPERSP_2 = 8;
+
+    // How far outside its bounding box a touch can land and still grab a
+    // caption, since touch accuracy is pretty poor on a real device, and
+    // the captions are fairly small.
+    private final int mTouchSlop;
+
+    // Spatial index of the captions' (slop-expanded) bounding boxes, ids
+    // being caption indexes.
+    private final CaptionHitGrid mHitGrid =
+            new CaptionHitGrid(CaptionHitGrid.DEFAULT_CELL_SIZE);
+
+    // The captions' own bounding boxes, indexed by caption:
+    // left, top, right, bottom.
+    private int[] mBoxes = new int[0];
+
+    // The image matrix last passed to setImageMatrix(), and its inverse,
+    // which is only recomputed when the matrix actually changes.
+    private final float[] mImageMatrix = new float[9];
+    private final float[] mInverseImageMatrix = new float[9];
+    private boolean mInverseValid;
+
+    // The last touch, in bitmap coordinates; see mapToImage().
+    private int mTouchX, mTouchY;
+
+    // State used while dragging a caption around
+    private boolean mDragging;
+    private int mDragCaptionIndex;
+    private int mTouchDownX, mTouchDownY;
+    private int mDragOffsetX, mDragOffsetY;  // current displacement of the dragged caption
+
+    /**
+     * @param touchSlop how far (in bitmap pixels) outside a caption's
+     *        bounding box a touch still grabs it.
+     */
+    public CaptionDragTracker(int touchSlop) {
+        mTouchSlop = touchSlop;
+    }
+
+    /**
+     * Forgets all the captions' boxes (but not a drag in progress), and
+     * sizes the hit grid for a bitmap of the specified size.
+     */
+    public void reset(int bitmapWidth, int bitmapHeight) {
+        mHitGrid.reset(bitmapWidth, bitmapHeight);
+    }
+
+    /**
+     * Sets the bounding box (in bitmap coordinates) of the specified
+     * caption, which can then be grabbed by touches on or near it.
+     */
+    public void setCaptionBox(int index, int left, int top, int right, int bottom) {
+        int offset = index * 4;
+        if (offset + 4 > mBoxes.length) {
+            int[] boxes = new int[Math.max(offset + 4, mBoxes.length * 2)];
+            System.arraycopy(mBoxes, 0, boxes, 0, mBoxes.length);
+            mBoxes = boxes;
+        }
+        mBoxes[offset] = left;
+        mBoxes[offset + 1] = top;
+        mBoxes[offset + 2] = right;
+        mBoxes[offset + 3] = bottom;
+        mHitGrid.set(index, left - mTouchSlop, top - mTouchSlop,
+                     right + mTouchSlop, bottom + mTouchSlop);
+    }
+
+    /**
+     * Makes the specified caption ungrabbable.
+     */
+    public void removeCaptionBox(int index) {
+        mHitGrid.remove(index);
+    }
+
+    /**
+     * Sets the matrix that maps bitmap coordinates to view coordinates
+     * (less the view's padding), as returned by Matrix.getValues().
+     */
+    public void setImageMatrix(float[] values) {
+        if (mInverseValid) {
+            boolean changed = false;
+            for (int i = 0; i < 9; i++) {
+                if (values[i] != mImageMatrix[i]) {
+                    changed = true;
+                    break;
+                }
+            }
+            if (!changed) return;
+        }
+        System.arraycopy(values, 0, mImageMatrix, 0, 9);
+        mInverseValid = invert(mImageMatrix, mInverseImageMatrix);
+    }
+
+    /**
+     * Handles a DOWN event at the specified point (in view coordinates,
+     * less the padding), starting a drag if it's on or near a caption.
+     * Any drag already in progress is abandoned.
+     *
+     * @return the index of the caption being dragged, or -1 if the
+     *         touch missed.
+     */
+    public int onDown(float x, float y) {
+        mDragging = false;
+        mapToImage(x, y);
+        int hit = mHitGrid.hitTest(mTouchX, mTouchY);
+        if (hit < 0) return -1;
+
+        mDragging = true;
+        mDragCaptionIndex = hit;
+        mTouchDownX = mTouchX;
+        mTouchDownY = mTouchY;
+        mDragOffsetX = 0;
+        mDragOffsetY = 0;
+        return hit;
+    }
+
+    /**
+     * Handles a MOVE event at the specified point.
+     *
+     * @return true if a caption is being dragged (so needs redrawing.)
+     */
+    public boolean onMove(float x, float y) {
+        if (!mDragging) return false;
+        mapToImage(x, y);
+        mDragOffsetX = mTouchX - mTouchDownX;
+        mDragOffsetY = mTouchY - mTouchDownY;
+        return true;
+    }
+
+    /**
+     * Handles an UP event at the specified point, dropping the caption
+     * being dragged there.  Its box here moves along with it; the caller
+     * should move the caption itself by getDragOffsetX(), getDragOffsetY().
+     *
+     * @return the index of the caption that was dropped, or -1 if none
+     *         was being dragged.
+     */
+    public int onUp(float x, float y) {
+        if (!onMove(x, y)) return -1;
+        mDragging = false;
+        int offset = mDragCaptionIndex * 4;
+        setCaptionBox(mDragCaptionIndex,
+                      mBoxes[offset] + mDragOffsetX, mBoxes[offset + 1] + mDragOffsetY,
+                      mBoxes[offset + 2] + mDragOffsetX, mBoxes[offset + 3] + mDragOffsetY);
+        return mDragCaptionIndex;
+    }
+
+    /**
+     * Abandons the drag in progress, if any, leaving the caption where
+     * it was.
+     *
+     * @return true if a caption was being dragged (so needs redrawing.)
+     */
+    public boolean cancel() {
+        boolean wasDragging = mDragging;
+        mDragging = false;
+        return wasDragging;
+    }
+
+    public boolean isDragging() {
+        return mDragging;
+    }
+
+    /** Only meaningful while dragging, or right after onUp(). */
+    public int getDragCaptionIndex() {
+        return mDragCaptionIndex;
+    }
+
+    /** Only meaningful while dragging, or right after onUp(). */
+    public int getDragOffsetX() {
+        return mDragOffsetX;
+    }
+
+    /** Only meaningful while dragging, or right after onUp(). */
+    public int getDragOffsetY() {
+        return mDragOffsetY;
+    }
+
+    // The dragged caption's bounding box, at its current displacement.
+    // Only meaningful while dragging.
+
+    public int getDragBoxLeft() {
+        return mBoxes[mDragCaptionIndex * 4] + mDragOffsetX;
+    }
+
+    public int getDragBoxTop() {
+        return mBoxes[mDragCaptionIndex * 4 + 1] + mDragOffsetY;
+    }
+
+    public int getDragBoxRight() {
+        return mBoxes[mDragCaptionIndex * 4 + 2] + mDragOffsetX;
+    }
+
+    public int getDragBoxBottom() {
+        return mBoxes[mDragCaptionIndex * 4 + 3] + mDragOffsetY;
+    }
+
+    /**
+     * Maps the specified point from view coordinates into bitmap
+     * coordinates (truncated towards zero, like LolcatView always did),
+     * leaving the result in mTouchX and mTouchY.
+     */
+    private void mapToImage(float x, float y) {
+        if (!mInverseValid) {
+            // No (invertible) matrix yet; assume it's the identity.
+            mTouchX = (int) x;
+            mTouchY = (int) y;
+            return;
+        }
+        float[] m = mInverseImageMatrix;
+        float mappedX = m[MSCALE_X] * x + m[MSKEW_X] * y + m[MTRANS_X];
+        float mappedY = m[MSKEW_Y] * x + m[MSCALE_Y] * y + m[MTRANS_Y];
+        float w = m[MPERSP_0] * x + m[MPERSP_1] * y + m[MPERSP_2];
+        if (w != 0 && w != 1) {
+            mappedX /= w;
+            mappedY /= w;
+        }
+        mTouchX = (int) mappedX;
+        mTouchY = (int) mappedY;
+    }
+
+    /**
+     * Inverts the 3x3 matrix m into inverse.
+     *
+     * @return false if m isn't invertible (inverse is left untouched.)
+     */
+    static boolean invert(float[] m, float[] inverse) {
+        // Cofactors of the first row...
+        double c0 = (double) m[4] * m[8] - (double) m[5] * m[7];
+        double c1 = (double) m[5] * m[6] - (double) m[3] * m[8];
+        double c2 = (double) m[3] * m[7] - (double) m[4] * m[6];
+        double det = m[0] * c0 + m[1] * c1 + m[2] * c2;
+        if (det == 0) return false;
+
+        double scale = 1 / det;
+        inverse[0] = (float) (c0 * scale);
+        inverse[1] = (float) (((double) m[2] * m[7] - (double) m[1] * m[8]) * scale);
+        inverse[2] = (float) (((double) m[1] * m[5] - (double) m[2] * m[4]) * scale);
+        inverse[3] = (float) (c1 * scale);
+        inverse[4] = (float) (((double) m[0] * m[8] - (double) m[2] * m[6]) * scale);
+        inverse[5] = (float) (((double) m[2] * m[3] - (double) m[0] * m[5]) * scale);
+        inverse[6] = (float) (c2 * scale);
+        inverse[7] = (float) (((double) m[1] * m[6] - (double) m[0] * m[7]) * scale);
+        inverse[8] = (float) (((double) m[0] * m[4] - (double) m[1] * m[3]) * scale);
+        return true;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+/**
+ * Uniform-grid spatial index of caption hit boxes, used by LolcatView to
+ * find the caption under a touch without checking every caption.
+ *
+ * The image is divided into square cells, and each cell lists the boxes
+ * that overlap it, so a hit test only looks at the handful of boxes in
+ * one cell no matter how many captions there are.  Boxes (or touches)
+ * outside the image are clamped into the edge cells, which keeps the
+ * grid small without ever missing a hit: a box is only reported if it
+ * really contains the point.
+ *
+ * Everything is stored in plain int arrays, so hit tests and updates
+ * don't allocate (once the arrays have grown to fit.)  Not thread-safe;
+ * LolcatView only uses it on the UI thread.
+ */
+final class CaptionHitGrid {
+
+    static final int DEFAULT_CELL_SIZE = 64;  // pixels
+
+    private static final int INITIAL_CELL_CAPACITY = 4;
+
+    private final int mCellSize;
+    private int mColumns, mRows;
+
+    // For each cell, the ids of the boxes overlapping it
+    private int[][] mCells = new int[0][];
+    private int[] mCellCounts = new int[0];
+
+    // Box bounds, indexed by id; mPresent[id] is false for unused ids.
+    private int[] mLefts = new int[0];
+    private int[] mTops = new int[0];
+    private int[] mRights = new int[0];
+    private int[] mBottoms = new int[0];
+    private boolean[] mPresent = new boolean[0];
+
+    public CaptionHitGrid(int cellSize) {
+        mCellSize = cellSize;
+    }
+
+    /**
+     * Removes all boxes, and sizes the grid to cover an image of the
+     * specified size.
+     */
+    public void reset(int width, int height) {
+        int columns = Math.max(1, (width + mCellSize - 1) / mCellSize);
+        int rows = Math.max(1, (height + mCellSize - 1) / mCellSize);
+        if (columns != mColumns || rows != mRows) {
+            mColumns = columns;
+            mRows = rows;
+            mCells = new int[columns * rows][];
+            mCellCounts = new int[columns * rows];
+        } else {
+            for (int i = 0; i < mCellCounts.length; i++) {
+                mCellCounts[i] = 0;
+            }
+        }
+        for (int id = 0; id < mPresent.length; id++) {
+            mPresent[id] = false;
+        }
+    }
+
+    /**
+     * Adds the box with the specified id, or moves it if it's already
+     * present.  The box is half-open, like a Rect: right and bottom are
+     * just outside it.
+     */
+    public void set(int id, int left, int top, int right, int bottom) {
+        remove(id);
+        ensureIdCapacity(id + 1);
+        mLefts[id] = left;
+        mTops[id] = top;
+        mRights[id] = right;
+        mBottoms[id] = bottom;
+        mPresent[id] = true;
+
+        int col0 = column(left), col1 = column(right - 1);
+        int row0 = row(top), row1 = row(bottom - 1);
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                addToCell(row * mColumns + col, id);
+            }
+        }
+    }
+
+    /**
+     * Removes the box with the specified id, if present.
+     */
+    public void remove(int id) {
+        if (id >= mPresent.length || !mPresent[id]) return;
+        mPresent[id] = false;
+
+        int col0 = column(mLefts[id]), col1 = column(mRights[id] - 1);
+        int row0 = row(mTops[id]), row1 = row(mBottoms[id] - 1);
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                removeFromCell(row * mColumns + col, id);
+            }
+        }
+    }
+
+    /**
+     * @return the id of a box containing the specified point, or -1 if
+     *         there isn't one.  If several boxes contain the point, the
+     *         one with the highest id (i.e. the caption drawn on top) wins.
+     */
+    public int hitTest(int x, int y) {
+        if (mColumns == 0) return -1;
+        int cell = row(y) * mColumns + column(x);
+        int[] ids = mCells[cell];
+        int count = mCellCounts[cell];
+        int hit = -1;
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            if (id > hit
+                    && x >= mLefts[id] && x < mRights[id]
+                    && y >= mTops[id] && y < mBottoms[id]) {
+                hit = id;
+            }
+        }
+        return hit;
+    }
+
+    private int column(int x) {
+        return Math.max(0, Math.min(mColumns - 1, floorDiv(x, mCellSize)));
+    }
+
+    private int row(int y) {
+        return Math.max(0, Math.min(mRows - 1, floorDiv(y, mCellSize)));
+    }
+
+    private static int floorDiv(int a, int b) {
+        return (a >= 0) ? a / b : -((-a + b - 1) / b);
+    }
+
+    private void addToCell(int cell, int id) {
+        int[] ids = mCells[cell];
+        int count = mCellCounts[cell];
+        if (ids == null) {
+            ids = mCells[cell] = new int[INITIAL_CELL_CAPACITY];
+        } else if (count == ids.length) {
+            int[] newIds = new int[count * 2];
+            System.arraycopy(ids, 0, newIds, 0, count);
+            ids = mCells[cell] = newIds;
+        }
+        ids[count] = id;
+        mCellCounts[cell] = count + 1;
+    }
+
+    private void removeFromCell(int cell, int id) {
+        int[] ids = mCells[cell];
+        int count = mCellCounts[cell];
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) {
+                // Order within a cell doesn't matter.
+                ids[i] = ids[count - 1];
+                mCellCounts[cell] = count - 1;
+                return;
+            }
+        }
+    }
+
+    private void ensureIdCapacity(int capacity) {
+        if (capacity <= mPresent.length) return;
+        int newCapacity = Math.max(capacity, mPresent.length * 2);
+        mLefts = grow(mLefts, newCapacity);
+        mTops = grow(mTops, newCapacity);
+        mRights = grow(mRights, newCapacity);
+        mBottoms = grow(mBottoms, newCapacity);
+        boolean[] present = new boolean[newCapacity];
+        System.arraycopy(mPresent, 0, present, 0, mPresent.length);
+        mPresent = present;
+    }
+
+    private static int[] grow(int[] array, int newCapacity) {
+        int[] newArray = new int[newCapacity];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+/**
+ * Lays out and draws lolcat captions, independently of any View.
+ *
+ * This is everything LolcatView used to do to turn a photo plus some
+ * captions into pixels: the standard caption style, where captions go
+ * by default, their bounding boxes, and caching and compositing their
+ * sprites.  LolcatView uses it for what's onscreen, but it only needs a
+ * Bitmap (or Canvas) and a CaptionDocument, so it works just as well on
+ * a worker thread with no Activity around, e.g.:
+ *
+ *     CaptionRenderer renderer = new CaptionRenderer(1f, spriteCache);
+ *     Bitmap lolcat = renderer.render(photo, captions, pool);
+ *
+ * An instance is not thread-safe (it has scratch state), so use one per
+ * thread; the CaptionSpriteCache can be shared.
+ */
+final class CaptionRenderer {
+    private static final String TAG = "CaptionRenderer";
+
+    // Standard lolcat caption size, for a photo scaled down to
+    // LolcatView.SCALED_IMAGE_MAX_DIMENSION
+    static final int FONT_SIZE = 44;
+
+    // The first two captions start off in opposite corners; any others
+    // start off in the middle.
+    static final int TOP_CAPTION = 0;
+    static final int BOTTOM_CAPTION = 1;
+    private static final int FIRST_EXTRA_CAPTION = 2;
+
+    // How far the default caption positions are from the edges of the photo
+    private static final int EDGE_BORDER = 20;
+
+    private final float mScale;
+    private final CaptionTextRenderer mTextRenderer;
+    private final CaptionSpriteCache mSpriteCache;
+    private final Paint mSpritePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final int[] mTmpPosition = new int[2];
+
+    /**
+     * @param scale how much bigger than standard to make the captions
+     *        (and their default positions), e.g. for a photo that's
+     *        bigger than LolcatView's scaled-down one.
+     * @param spriteCache where to keep rendered captions, or null to
+     *        draw the text directly every time (which is better for big
+     *        captions that would just churn the cache.)
+     */
+    public CaptionRenderer(float scale, CaptionSpriteCache spriteCache) {
+        mScale = scale;
+        mTextRenderer = createTextRenderer(scale);
+        mSpriteCache = spriteCache;
+    }
+
+    private static CaptionTextRenderer createTextRenderer(float scale) {
+        // The most standard font for lolcat captions is Impact.  (Arial
+        // Black is also common.)  Unfortunately we don't have either of
+        // these on the device by default; the closest we can do is
+        // DroidSans-Bold:
+        return new CaptionTextRenderer(FONT_SIZE * scale, Typeface.DEFAULT_BOLD);
+    }
+
+    public CaptionTextRenderer getTextRenderer() {
+        return mTextRenderer;
+    }
+
+    /**
+     * Sets the width of the black outline drawn around the caption text.
+     * (Not scaled; callers that use a scale should scale it themselves.)
+     */
+    public void setStrokeWidth(float strokeWidth) {
+        mTextRenderer.setStrokeWidth(strokeWidth);
+    }
+
+    public float getStrokeWidth() {
+        return mTextRenderer.getStrokeWidth();
+    }
+
+    /**
+     * Computes where a caption goes on a photo of the specified size if
+     * it hasn't been positioned yet: the top caption at the upper-left,
+     * the bottom caption at the lower-right, and any others centered,
+     * stacked downwards from the middle (wrapping back up to the top) so
+     * they don't all land on top of each other.
+     *
+     * Watch out: the position is the *lower* left corner of the text (the
+     * left end of its baseline), not the upper left.
+     *
+     * @param outPosition receives x and y.
+     */
+    public void getDefaultPosition(int index, String text, int width, int height,
+                                   int[] outPosition) {
+        final int edgeBorder = (int) (EDGE_BORDER * mScale);
+        final int fontHeight = mTextRenderer.getFontHeight();
+        int x, y;
+        if (index == TOP_CAPTION) {
+            x = edgeBorder;
+            y = edgeBorder + (fontHeight * 3 / 4);
+        } else if (index == BOTTOM_CAPTION) {
+            x = width - edgeBorder - (int) mTextRenderer.measureText(text);
+            y = height - edgeBorder;
+        } else {
+            x = (width - (int) mTextRenderer.measureText(text)) / 2;
+            int rows = Math.max(1, (height - 2 * edgeBorder) / fontHeight);
+            int row = (rows / 2 + index - FIRST_EXTRA_CAPTION) % rows;
+            y = edgeBorder + (row + 1) * fontHeight;
+        }
+        outPosition[0] = x;
+        outPosition[1] = y;
+    }
+
+    /**
+     * @return the bounding box of the specified text (ignoring its
+     *         outline) with the left end of its baseline at x/y.  This
+     *         covers the glyphs' actual extents, including descenders
+     *         below the baseline and any overhang to the left of x.
+     */
+    public Rect computeBoundingBox(String text, int x, int y) {
+        Rect bounds = new Rect();
+        mTextRenderer.getTextBounds(text, bounds);
+        bounds.offset(x, y);
+        return bounds;
+    }
+
+    /**
+     * Returns the sprite for the specified caption text, from the sprite
+     * cache if possible.  With no sprite cache, this renders a new one
+     * every time.
+     */
+    public CaptionSpriteCache.Sprite getSprite(String text) {
+        if (mSpriteCache == null) return mTextRenderer.renderSprite(text);
+        CaptionSpriteCache.Key key = mTextRenderer.newSpriteKey(text);
+        CaptionSpriteCache.Sprite sprite = mSpriteCache.get(key);
+        if (sprite == null) {
+            sprite = mTextRenderer.renderSprite(text);
+            mSpriteCache.put(key, sprite);
+        }
+        if (LolcatLog.V) LolcatLog.v(TAG, "- sprite for '" + text + "': " + mSpriteCache);
+        return sprite;
+    }
+
+    /**
+     * Draws a sprite from getSprite() with the left end of its text's
+     * baseline at x/y.
+     */
+    public void drawSprite(Canvas canvas, CaptionSpriteCache.Sprite sprite, int x, int y) {
+        canvas.drawBitmap(sprite.bitmap, x + sprite.offsetX, y + sprite.offsetY, mSpritePaint);
+    }
+
+    /**
+     * Draws all the (non-empty) captions in the specified document onto
+     * a photo of the specified size.  Captions that haven't been
+     * positioned yet are drawn at their default positions.
+     */
+    public void drawCaptions(Canvas canvas, CaptionDocument captions, int width, int height) {
+        for (int i = 0; i < captions.getCaptionCount(); i++) {
+            String text = captions.getText(i);
+            if (text == null || text.length() == 0) continue;
+            int x, y;
+            if (captions.hasPosition(i)) {
+                x = captions.getX(i);
+                y = captions.getY(i);
+            } else {
+                getDefaultPosition(i, text, width, height, mTmpPosition);
+                x = mTmpPosition[0];
+                y = mTmpPosition[1];
+            }
+            if (mSpriteCache != null) {
+                drawSprite(canvas, getSprite(text), x, y);
+            } else {
+                mTextRenderer.draw(canvas, text, x, y);
+            }
+        }
+    }
+
+    /**
+     * Renders the specified captions onto a copy of the specified photo.
+     * The caption style (other than the scale) comes from the document.
+     *
+     * @param pool where to get the new Bitmap from, or null to allocate it.
+     * @return a new ARGB_8888 Bitmap the same size as the photo, which
+     *         belongs to the caller.
+     */
+    public Bitmap render(Bitmap photo, CaptionDocument captions, BitmapPool pool) {
+        final int width = photo.getWidth();
+        final int height = photo.getHeight();
+        if (LolcatLog.V) LolcatLog.v(TAG, "render: " + width + "x" + height + ", " + captions);
+        setStrokeWidth(captions.getStrokeWidth() * mScale);
+
+        Bitmap bitmap = (pool != null)
+                ? pool.get(width, height, Bitmap.Config.ARGB_8888)
+                : Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawBitmap(photo, 0, 0, null);
+        drawCaptions(canvas, captions, width, height);
+        return bitmap;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import android.graphics.Bitmap;
+import android.graphics.Typeface;
+import android.support.v4.util.LruCache;
+
+/**
+ * Small LRU cache of rendered caption sprites.
+ *
+ * Rasterizing a caption (with its outline) is by far the most expensive
+ * part of rendering a lolcat, and the result only depends on the text
+ * and the font, so there's no need to redo it when a caption is merely
+ * repositioned, or when the LolcatView is recreated after an
+ * orientation change.
+ *
+ * Evicted sprites are simply dropped (not recycled), since a Caption
+ * may still be displaying them.
+ */
+final class CaptionSpriteCache {
+
+    /**
+     * A rendered caption, plus the position of its upper-left corner
+     * relative to the left end of the text baseline.
+     */
+    static final class Sprite {
+        final Bitmap bitmap;
+        final int offsetX, offsetY;
+
+        Sprite(Bitmap bitmap, int offsetX, int offsetY) {
+            this.bitmap = bitmap;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+        }
+    }
+
+    /**
+     * Everything that affects how a caption sprite looks.
+     */
+    static final class Key {
+        final String text;
+        final float textSize;
+        final Typeface typeface;
+        final int style;
+        final float strokeWidth;
+
+        Key(String text, float textSize, Typeface typeface, int style, float strokeWidth) {
+            this.text = text;
+            this.textSize = textSize;
+            this.typeface = typeface;
+            this.style = style;
+            this.strokeWidth = strokeWidth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return text.equals(other.text)
+                    && Float.floatToIntBits(textSize) == Float.floatToIntBits(other.textSize)
+                    && typeface == other.typeface
+                    && style == other.style
+                    && Float.floatToIntBits(strokeWidth)
+                            == Float.floatToIntBits(other.strokeWidth);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = text.hashCode();
+            result = 31 * result + Float.floatToIntBits(textSize);
+            result = 31 * result + (typeface != null ? typeface.hashCode() : 0);
+            result = 31 * result + style;
+            result = 31 * result + Float.floatToIntBits(strokeWidth);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "Key['" + text + "'; size " + textSize + "; typeface " + typeface
+                    + "; style " + style + "; stroke " + strokeWidth + "]";
+        }
+    }
+
+    private final LruCache<Key, Sprite> mCache;
+
+    public CaptionSpriteCache(int maxBytes) {
+        mCache = new LruCache<Key, Sprite>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Sprite sprite) {
+                return sprite.bitmap.getRowBytes() * sprite.bitmap.getHeight();
+            }
+        };
+    }
+
+    /**
+     * @return the cached sprite for the specified key, or null if we don't have one.
+     */
+    public Sprite get(Key key) {
+        return mCache.get(key);
+    }
+
+    public void put(Key key, Sprite sprite) {
+        mCache.put(key, sprite);
+    }
+
+    public void evictAll() {
+        mCache.evictAll();
+    }
+
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+
+    @Override
+    public String toString() {
+        return "CaptionSpriteCache[" + mCache.size() + "/" + mCache.maxSize() + " bytes; hits "
+                + getHitCount() + ", misses " + getMissCount() + "]";
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+/**
+ * Draws lolcat caption text in the standard style: white fill with a
+ * heavy black outline.
+ *
+ * This used to be simulated by drawing the text four times with a
+ * shadow layer offset in a different direction each time, which was both
+ * a hack and slow (every pass is a blur in Skia's software renderer.)
+ * Instead we do a real "white fill, black stroke": one STROKE pass with
+ * a thick black pen, then one FILL pass in white on top of it.
+ */
+final class CaptionTextRenderer {
+
+    static final int DEFAULT_FILL_COLOR = 0xFFFFFFFF;
+    static final int DEFAULT_STROKE_COLOR = 0xFF000000;
+
+    // Since the stroke is centered on the glyph outlines and the fill
+    // covers the inner half, the visible outline is half this wide.
+    static final float DEFAULT_STROKE_WIDTH = 6f;
+
+    private final Paint mFillPaint;
+    private final Paint mStrokePaint;
+    private final Rect mTmpRect = new Rect();
+
+    public CaptionTextRenderer(float textSize, Typeface typeface) {
+        mFillPaint = new Paint();
+        mFillPaint.setAntiAlias(true);
+        mFillPaint.setStyle(Paint.Style.FILL);
+        mFillPaint.setColor(DEFAULT_FILL_COLOR);
+        mFillPaint.setTextSize(textSize);
+        mFillPaint.setTypeface(typeface);
+
+        mStrokePaint = new Paint(mFillPaint);
+        mStrokePaint.setStyle(Paint.Style.STROKE);
+        mStrokePaint.setStrokeJoin(Paint.Join.ROUND);
+        mStrokePaint.setColor(DEFAULT_STROKE_COLOR);
+        mStrokePaint.setStrokeWidth(DEFAULT_STROKE_WIDTH);
+    }
+
+    public void setStrokeWidth(float strokeWidth) {
+        mStrokePaint.setStrokeWidth(strokeWidth);
+    }
+
+    public float getStrokeWidth() {
+        return mStrokePaint.getStrokeWidth();
+    }
+
+    public float getTextSize() {
+        return mFillPaint.getTextSize();
+    }
+
+    public Typeface getTypeface() {
+        return mFillPaint.getTypeface();
+    }
+
+    /**
+     * @return a description of the caption font that, unlike the
+     *         Typeface itself (whose toString() is just its identity),
+     *         stays the same across processes: the system family it
+     *         comes from, plus its style.
+     */
+    public String describeTypeface() {
+        Typeface face = getTypeface();
+        if (face == null) return "null";
+        String family;
+        if (face == Typeface.DEFAULT || face == Typeface.DEFAULT_BOLD) {
+            family = "default";
+        } else if (face == Typeface.SANS_SERIF) {
+            family = "sans-serif";
+        } else if (face == Typeface.SERIF) {
+            family = "serif";
+        } else if (face == Typeface.MONOSPACE) {
+            family = "monospace";
+        } else {
+            family = "custom";
+        }
+        return family + ":" + face.getStyle();
+    }
+
+    /**
+     * @return the recommended line spacing for the caption font.
+     */
+    public int getFontHeight() {
+        return mFillPaint.getFontMetricsInt(null);
+    }
+
+    public float measureText(String text) {
+        return mFillPaint.measureText(text);
+    }
+
+    /**
+     * Returns the bounds of the text itself (ignoring the outline),
+     * relative to the left end of the baseline.
+     */
+    public void getTextBounds(String text, Rect bounds) {
+        mFillPaint.getTextBounds(text, 0, text.length(), bounds);
+    }
+
+    /**
+     * Draws the text, outline first and then fill, with the left end of
+     * the baseline at x/y.
+     */
+    public void draw(Canvas canvas, String text, float x, float y) {
+        canvas.drawText(text, x, y, mStrokePaint);
+        canvas.drawText(text, x, y, mFillPaint);
+    }
+
+    /**
+     * @return a CaptionSpriteCache key describing how this renderer
+     *         would draw the specified text.
+     */
+    public CaptionSpriteCache.Key newSpriteKey(String text) {
+        Typeface face = getTypeface();
+        return new CaptionSpriteCache.Key(text, getTextSize(), face,
+                                          (face != null) ? face.getStyle() : 0,
+                                          getStrokeWidth());
+    }
+
+    /**
+     * Renders the specified text into a new Bitmap just big enough to
+     * hold it (plus its outline.)
+     */
+    public CaptionSpriteCache.Sprite renderSprite(String text) {
+        // Leave room for the half of the stroke that falls outside the glyphs.
+        final int padding = (int) Math.ceil(getStrokeWidth() / 2) + 1;
+
+        getTextBounds(text, mTmpRect);
+        int spriteWidth = mTmpRect.width() + 2 * padding;
+        int spriteHeight = mTmpRect.height() + 2 * padding;
+
+        // The sprite's upper-left corner, relative to the left end of the
+        // text baseline.
+        int offsetX = mTmpRect.left - padding;
+        int offsetY = mTmpRect.top - padding;
+
+        Bitmap bitmap = Bitmap.createBitmap(spriteWidth, spriteHeight, Bitmap.Config.ARGB_8888);
+        draw(new Canvas(bitmap), text, -offsetX, -offsetY);
+        return new CaptionSpriteCache.Sprite(bitmap, offsetX, offsetY);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Build;
+
+/**
+ * Renders a lolcat at the full resolution of the original photo, rather
+ * than at the size of the scaled-down copy that LolcatView edits.
+ *
+ * Caption positions (and the caption font and outline) are mapped from
+ * the edit-space Bitmap's coordinates to the original's.  The image is
+ * then built one horizontal strip at a time: each strip of the original
+ * is decoded with a BitmapRegionDecoder, the captions that overlap it
+ * are drawn on top, and its rows are streamed into a PngStreamEncoder.
+ * So only one strip is ever in memory, and even a 48 megapixel photo
+ * can be exported on a phone with a 16MB heap.
+ *
+ * BitmapRegionDecoder is new in Gingerbread MR1; check isSupported()
+ * before using this class.
+ */
+final class FullResolutionExporter {
+    private static final String TAG = "FullResolutionExporter";
+
+    // Build.VERSION_CODES.GINGERBREAD_MR1, the first release with
+    // BitmapRegionDecoder
+    private static final int GINGERBREAD_MR1 = 10;
+
+    // Build.VERSION_CODES.JELLY_BEAN, the first release where
+    // BitmapRegionDecoder can decode into an existing Bitmap (inBitmap)
+    private static final int JELLY_BEAN = 16;
+
+    // Roughly how much memory the strip Bitmap may use.
+    private static final int MAX_STRIP_BYTES = 2 * 1024 * 1024;
+
+    private final ContentResolver mResolver;
+    private final Uri mPhotoUri;
+    private final CaptionDocument mCaptions;
+    private final int mEditWidth;
+    private final int mEditHeight;
+
+    /**
+     * @param captions the captions to draw, positioned in edit space.
+     * @param editWidth the width of the Bitmap the captions were positioned on.
+     * @param editHeight the height of the Bitmap the captions were positioned on.
+     */
+    public FullResolutionExporter(ContentResolver resolver, Uri photoUri,
+                                  CaptionDocument captions, int editWidth, int editHeight) {
+        mResolver = resolver;
+        mPhotoUri = photoUri;
+        mCaptions = captions;
+        mEditWidth = editWidth;
+        mEditHeight = editHeight;
+    }
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= GINGERBREAD_MR1;
+    }
+
+    /**
+     * Renders the lolcat, and writes it to the specified stream as a PNG.
+     * The stream is flushed but not closed.  Runs for a long time for big
+     * photos, so must not be called on the UI thread; interrupting the
+     * calling thread abandons the export.
+     */
+    public void export(OutputStream out) throws IOException, InterruptedException {
+        BitmapRegionDecoder decoder = openDecoder();
+        try {
+            export(decoder, out);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    private BitmapRegionDecoder openDecoder() throws IOException {
+        InputStream in = mResolver.openInputStream(mPhotoUri);
+        if (in == null) throw new IOException("Couldn't open " + mPhotoUri);
+        try {
+            return BitmapRegionDecoder.newInstance(in, false /* isShareable */);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void export(BitmapRegionDecoder decoder, OutputStream out)
+            throws IOException, InterruptedException {
+        final int width = decoder.getWidth();
+        final int height = decoder.getHeight();
+        final float scaleX = (float) width / mEditWidth;
+        final float scaleY = (float) height / mEditHeight;
+        if (LolcatLog.V) LolcatLog.v(TAG, "export: " + mPhotoUri + ", " + width + "x" + height
+                                     + ", scale " + scaleX + "x" + scaleY);
+
+        // Draw the captions exactly as LolcatView would, just bigger.
+        // (Straight from the text: sprites this big would only churn the
+        // sprite cache.)
+        CaptionRenderer renderer = new CaptionRenderer(scaleX, null /* no sprite cache */);
+        renderer.setStrokeWidth(mCaptions.getStrokeWidth() * scaleX);
+        CaptionTextRenderer textRenderer = renderer.getTextRenderer();
+
+        // Work out where each caption goes in the original, and which
+        // rows it covers (descenders and outline included: strips can be
+        // much shorter than the text), so each strip only draws the
+        // captions that actually touch it.
+        final int count = mCaptions.getCaptionCount();
+        final float[] xs = new float[count];
+        final float[] ys = new float[count];
+        final Rect[] bounds = new Rect[count];
+        final int padding = (int) Math.ceil(renderer.getStrokeWidth() / 2) + 1;
+        for (int i = 0; i < count; i++) {
+            String text = mCaptions.getText(i);
+            if (text == null || text.length() == 0 || !mCaptions.hasPosition(i)) continue;
+            xs[i] = mCaptions.getX(i) * scaleX;
+            ys[i] = mCaptions.getY(i) * scaleY;
+            Rect r = renderer.computeBoundingBox(text, (int) xs[i], (int) ys[i]);
+            r.inset(-padding, -padding);
+            bounds[i] = r;
+        }
+
+        final int stripHeight = Math.max(1, Math.min(height, MAX_STRIP_BYTES / (width * 4)));
+        Bitmap strip = Bitmap.createBitmap(width, stripHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(strip);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        // Where we can, every strip of the photo is decoded into the same
+        // Bitmap, rather than allocating (up to MAX_STRIP_BYTES) afresh
+        // for each one.  Before Jelly Bean, each strip is recycled as
+        // soon as it's been drawn instead.
+        final boolean reuseSource = Build.VERSION.SDK_INT >= JELLY_BEAN;
+        if (reuseSource) options.inMutable = true;
+        Bitmap source = null;
+        Rect region = new Rect();
+        int[] row = new int[width];
+
+        PngStreamEncoder png = null;
+        try {
+            png = new PngStreamEncoder(out, width, height);
+            for (int top = 0; top < height; top += stripHeight) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                int bottom = Math.min(height, top + stripHeight);
+
+                region.set(0, top, width, bottom);
+                // (inBitmap has to match the region's size exactly, so
+                // the last, shorter strip gets a Bitmap of its own.)
+                options.inBitmap = (source != null && bottom - top == stripHeight)
+                        ? source : null;
+                Bitmap decoded = decoder.decodeRegion(region, options);
+                if (decoded == null) throw new IOException("Couldn't decode " + region);
+                if (source != null && decoded != source) source.recycle();
+                source = decoded;
+                canvas.drawBitmap(source, 0, 0, null);
+                if (!reuseSource) {
+                    source.recycle();
+                    source = null;
+                }
+
+                canvas.save();
+                canvas.translate(0, -top);
+                for (int i = 0; i < count; i++) {
+                    if (bounds[i] != null && bounds[i].intersects(0, top, width, bottom)) {
+                        textRenderer.draw(canvas, mCaptions.getText(i), xs[i], ys[i]);
+                    }
+                }
+                canvas.restore();
+
+                for (int y = 0; y < bottom - top; y++) {
+                    strip.getPixels(row, 0, width, 0, y, width, 1);
+                    png.writeRow(row);
+                }
+            }
+            png.finish();
+        } finally {
+            if (png != null) png.release();
+            options.inBitmap = null;
+            if (source != null) source.recycle();
+            strip.recycle();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+/**
+ * The size arithmetic behind ScaledBitmapDecoder.  It's kept apart from
+ * the decoder (and free of any Android dependencies) so that it can be
+ * benchmarked on a plain JVM; see benchmarks/.
+ */
+final class ImageScaling {
+
+    private ImageScaling() { }
+
+    /**
+     * Returns the largest power-of-two sample size that still leaves the
+     * decoded image's larger dimension at least maxDimension pixels, so
+     * the final rescale only ever scales down.
+     *
+     * So the subsampled image's larger dimension is at most
+     * 2 * maxDimension (or the original's, if that's smaller): at most
+     * about 1000x750 (3MB of ARGB_8888) for a 4x3 photo and the standard
+     * 500 pixel lolcat, whatever the photo's resolution.  The decoder
+     * briefly holds that and the final rescaled Bitmap at once, so its
+     * peak is about 3.75MB.  (A 4000x3000 photo decodes straight to
+     * 500x375, so it peaks at just that; the worst case is a size just
+     * under a power-of-two multiple of maxDimension, like 3968x2976.)
+     */
+    static int computeSampleSize(int origWidth, int origHeight, int maxDimension) {
+        int largerDimension = Math.max(origWidth, origHeight);
+        int sampleSize = 1;
+        while (largerDimension / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @return a two-element array containing the width and height that
+     *         BitmapFactory decodes the image at with the specified
+     *         inSampleSize (rounding up, to be safe.)
+     */
+    static int[] computeSampledSize(int origWidth, int origHeight, int sampleSize) {
+        return new int[] {
+            (origWidth + sampleSize - 1) / sampleSize,
+            (origHeight + sampleSize - 1) / sampleSize
+        };
+    }
+
+    /**
+     * Standard lolcat size is 500x375.  But we don't want to distort the
+     * image if it isn't 4x3, so we set the larger dimension to
+     * maxDimension pixels and preserve the source aspect ratio.
+     *
+     * @return a two-element array containing the scaled width and height.
+     */
+    static int[] computeScaledSize(int origWidth, int origHeight, int maxDimension) {
+        float aspect = (float) origWidth / origHeight;
+        float scaleFactor = ((aspect > 1.0) ? origWidth : origHeight) / (float) maxDimension;
+        int scaledWidth = Math.max(1, Math.round(origWidth / scaleFactor));
+        int scaledHeight = Math.max(1, Math.round(origHeight / scaleFactor));
+        return new int[] { scaledWidth, scaledHeight };
+    }
+}
@@ -17,24 +17,18 @@
 package com.android.lolcat;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
+import java.util.Arrays;
 
 import org.holoeverywhere.app.Activity;
 
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
-import android.media.MediaScannerConnection;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Environment;
-import android.os.Handler;
 import android.support.v4.app.FragmentManager;
 import android.text.TextUtils;
-import android.util.Log;
 import android.widget.Toast;
 
 import com.actionbarsherlock.view.Menu;
@@ -73,27 +67,38 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
 
 	private static final String TAG = "LolcatActivity";
 
-    // Location on the SD card for saving lolcat images
-    private static final String LOLCAT_SAVE_DIRECTORY = "lolcats/";
-
-    // Mime type / format / extension we use (must be self-consistent!)
-    private static final String SAVED_IMAGE_EXTENSION = ".png";
-    private static final Bitmap.CompressFormat SAVED_IMAGE_COMPRESS_FORMAT =
-            Bitmap.CompressFormat.PNG;
-
     // UI Elements
     private LolcatView mLolcatView;
-    
-    private Handler mHandler;
+
+    // Decodes picked photos off the UI thread
+    private PhotoLoader mPhotoLoader;
+    private RetainedPhotoFragment mRetainedPhoto;
+
+    // Saves lolcats to the SD card off the UI thread
+    private LolcatSaver mSaver;
 
     private Uri mPhotoUri;
 
     private String mSavedImageFilename;
     private Uri mSavedImageUri;
+    private String mSavedImageMimeType;
+
+    // Describes the photo and captions that mSavedImageFilename was
+    // rendered from, so that re-saving an unchanged lolcat can skip
+    // straight to the result.  (See getRenderFingerprint().)
+    private String mSavedImageFingerprint;
+    private String mSavingImageFingerprint;  // for the save in progress
     
     private Menu mABSMenu;
 
-    private MediaScannerConnection mMediaScannerConnection;
+    // Where (under getCacheDir()) and how big the on-disk cache of
+    // scaled-down photos is; see ScaledBitmapDiskCache.
+    private static final String SCALED_CACHE_DIRECTORY = "scaled";
+    private static final long SCALED_CACHE_MAX_BYTES = 8 * 1024 * 1024;
+
+    // Where the user's choice of save format (its mime type) is kept
+    private static final String PREFERENCES_NAME = "lolcat";
+    private static final String SAVE_FORMAT_PREF = "save_format";
 
     // Request codes used with startActivityForResult()
     private static final int PHOTO_PICKED = 1;
@@ -102,14 +107,15 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
     private static final String PHOTO_URI_KEY = "photo_uri";
     private static final String SAVED_IMAGE_FILENAME_KEY = "saved_image_filename";
     private static final String SAVED_IMAGE_URI_KEY = "saved_image_uri";
-    private static final String TOP_CAPTION_KEY = "top_caption";
-    private static final String BOTTOM_CAPTION_KEY = "bottom_caption";
-    private static final String CAPTION_POSITIONS_KEY = "caption_positions";
+    private static final String SAVED_IMAGE_MIME_TYPE_KEY = "saved_image_mime_type";
+    private static final String SAVED_IMAGE_FINGERPRINT_KEY = "saved_image_fingerprint";
+    private static final String SAVING_IMAGE_FINGERPRINT_KEY = "saving_image_fingerprint";
+    private static final String CAPTION_DOCUMENT_KEY = "caption_document";
     
     
     @Override
     protected void onCreate(Bundle icicle) {
-        Log.i(TAG, "onCreate()...  icicle = " + icicle);
+        if (LolcatLog.V) LolcatLog.v(TAG, "onCreate()...  icicle = " + icicle);
         requestWindowFeature(Window.FEATURE_INDETERMINATE_PROGRESS);
 
         super.onCreate(icicle);
@@ -119,21 +125,41 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
         // Look up various UI elements
         mLolcatView = (LolcatView) findViewById(R.id.main_image);
 
-        // Need one of these to call back to the UI thread
-        // (and run AlertDialog.show(), for that matter)
-        mHandler = new Handler();
+        mPhotoLoader = new PhotoLoader(getContentResolver(),
+                                       LolcatView.SCALED_IMAGE_MAX_DIMENSION,
+                                       LolcatView.sBitmapPool,
+                                       ScaledBitmapCache.getInstance(this),
+                                       new ScaledBitmapDiskCache(
+                                               new File(getCacheDir(), SCALED_CACHE_DIRECTORY),
+                                               SCALED_CACHE_MAX_BYTES));
 
-        mMediaScannerConnection = new MediaScannerConnection(this, mMediaScanConnClient);
+        // Find (or create) the fragment that keeps our photo across
+        // orientation changes.
+        FragmentManager fm = getSupportFragmentManager();
+        mRetainedPhoto = (RetainedPhotoFragment) fm.findFragmentByTag(RetainedPhotoFragment.TAG);
+        if (mRetainedPhoto == null) {
+            mRetainedPhoto = new RetainedPhotoFragment();
+            fm.beginTransaction().add(mRetainedPhoto, RetainedPhotoFragment.TAG).commit();
+        }
+
+        // If the previous instance was in the middle of a save, carry on
+        // with its LolcatSaver; we'll get the result when it's done.
+        mSaver = mRetainedPhoto.takeSaver();
+        if (mSaver == null) {
+            mSaver = new LolcatSaver(this, LolcatView.sBitmapPool);
+            restoreSaveFormat();
+        }
 
         if (icicle != null) {
-            Log.i(TAG, "- reloading state from icicle!");
+            if (LolcatLog.V) LolcatLog.v(TAG, "- reloading state from icicle!");
             restoreStateFromIcicle(icicle);
         }
+        mSaver.setCallback(mSaveFinishedCallback);
     }
 
     @Override
     protected void onResume() {
-        Log.i(TAG, "onResume()...");
+        if (LolcatLog.V) LolcatLog.v(TAG, "onResume()...");
         super.onResume();
 
         updateButtons();
@@ -141,19 +167,20 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
 
     @Override
     protected void onSaveInstanceState(Bundle outState) {
-        Log.i(TAG, "onSaveInstanceState()...");
+        if (LolcatLog.V) LolcatLog.v(TAG, "onSaveInstanceState()...");
         super.onSaveInstanceState(outState);
 
         // State from the Activity:
         outState.putParcelable(PHOTO_URI_KEY, mPhotoUri);
         outState.putString(SAVED_IMAGE_FILENAME_KEY, mSavedImageFilename);
         outState.putParcelable(SAVED_IMAGE_URI_KEY, mSavedImageUri);
+        outState.putString(SAVED_IMAGE_MIME_TYPE_KEY, mSavedImageMimeType);
+        outState.putString(SAVED_IMAGE_FINGERPRINT_KEY, mSavedImageFingerprint);
+        outState.putString(SAVING_IMAGE_FINGERPRINT_KEY, mSavingImageFingerprint);
 
         // State from the LolcatView:
         // Revoked todo: Yes, parceling the whole View is overkill.
-        outState.putString(TOP_CAPTION_KEY, mLolcatView.getTopCaption());
-        outState.putString(BOTTOM_CAPTION_KEY, mLolcatView.getBottomCaption());
-        outState.putIntArray(CAPTION_POSITIONS_KEY, mLolcatView.getCaptionPositions());
+        outState.putParcelable(CAPTION_DOCUMENT_KEY, mLolcatView.getCaptionDocument());
     }
     
     @Override
@@ -161,47 +188,112 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
 		MenuInflater inflater = getSupportMenuInflater();
 		inflater.inflate(R.menu.menu_main, menu);
 		mABSMenu = menu;
-		addonSherlock().setProgressBarIndeterminateVisibility(false);
+		// A photo may still be loading (or a lolcat saving) if we were just
+		// restored from an icicle.
+		addonSherlock().setProgressBarIndeterminateVisibility(
+				mPhotoLoader.isLoading() || mSaver.isSaving());
 		updateButtons();
 		return true;
 	}
 
+    /**
+     * Applies the save format the user last picked (see setSaveFormat())
+     * to mSaver, if this device can still encode it.
+     */
+    private void restoreSaveFormat() {
+        SharedPreferences prefs = getSharedPreferences(PREFERENCES_NAME, MODE_PRIVATE);
+        SaveFormat format = SaveFormat.fromMimeType(prefs.getString(SAVE_FORMAT_PREF, null));
+        if (format != null && format.isSupported()) {
+            mSaver.setSaveFormat(format, format.getDefaultQuality());
+        }
+    }
+
+    /**
+     * Makes subsequent saves use the specified format, and remembers it
+     * for next time.
+     */
+    private void setSaveFormat(SaveFormat format) {
+        if (LolcatLog.V) LolcatLog.v(TAG, "setSaveFormat: " + format);
+        if (!format.isSupported()) {
+            LolcatLog.w(TAG, format + " isn't supported here; ignoring.");
+            return;
+        }
+        mSaver.setSaveFormat(format, format.getDefaultQuality());
+        getSharedPreferences(PREFERENCES_NAME, MODE_PRIVATE).edit()
+                .putString(SAVE_FORMAT_PREF, format.getMimeType())
+                .commit();
+        updateButtons();
+    }
+
     /**
      * Restores the activity state from the specified icicle.
      * @see onCreate()
      * @see onSaveInstanceState()
      */
     private void restoreStateFromIcicle(Bundle icicle) {
-        Log.i(TAG, "restoreStateFromIcicle()...");
+        if (LolcatLog.V) LolcatLog.v(TAG, "restoreStateFromIcicle()...");
 
         // State of the Activity:
 
         Uri photoUri = icicle.getParcelable(PHOTO_URI_KEY);
-        Log.i(TAG, "  - photoUri: " + photoUri);
+        if (LolcatLog.V) LolcatLog.v(TAG, "  - photoUri: " + photoUri);
         if (photoUri != null) {
-            loadPhoto(photoUri);
+            // If this is just an orientation change, the previous
+            // instance left the decoded photo with mRetainedPhoto;
+            // otherwise we have to decode it again.
+            Bitmap retained = mRetainedPhoto.takeBitmap(photoUri);
+            if (retained != null) {
+                mPhotoUri = photoUri;
+                mLolcatView.setScaledBitmap(retained);
+            } else {
+                loadPhoto(photoUri);
+            }
         }
 
         mSavedImageFilename = icicle.getString(SAVED_IMAGE_FILENAME_KEY);
         mSavedImageUri = icicle.getParcelable(SAVED_IMAGE_URI_KEY);
+        mSavedImageMimeType = icicle.getString(SAVED_IMAGE_MIME_TYPE_KEY);
+        mSavedImageFingerprint = icicle.getString(SAVED_IMAGE_FINGERPRINT_KEY);
+        mSavingImageFingerprint = icicle.getString(SAVING_IMAGE_FINGERPRINT_KEY);
 
         // State of the LolcatView:
 
-        String topCaption = icicle.getString(TOP_CAPTION_KEY);
-        String bottomCaption = icicle.getString(BOTTOM_CAPTION_KEY);
-        int[] captionPositions = icicle.getIntArray(CAPTION_POSITIONS_KEY);
-        Log.i(TAG, "  - captions: '" + topCaption + "', '" + bottomCaption + "'");
-        if (!TextUtils.isEmpty(topCaption) || !TextUtils.isEmpty(bottomCaption)) {
-            mLolcatView.setCaptions(topCaption, bottomCaption);
-            mLolcatView.setCaptionPositions(captionPositions);
+        CaptionDocument captions = icicle.getParcelable(CAPTION_DOCUMENT_KEY);
+        if (LolcatLog.V) LolcatLog.v(TAG, "  - captions: " + captions);
+        if (captions != null) {
+            mLolcatView.setCaptionDocument(captions);
         }
     }
 
     @Override
     protected void onDestroy() {
-        Log.i(TAG, "onDestroy()...");
+        if (LolcatLog.V) LolcatLog.v(TAG, "onDestroy()...");
         super.onDestroy();
-        clearPhoto();  // Free up some resources, and force a GC
+        mPhotoLoader.shutdown();  // Don't deliver a photo to a dead activity
+        if (isFinishing()) {
+            mSaver.shutdown();  // ... or a save result
+            clearPhoto();  // Give the photo back to the BitmapPool
+            LolcatView.trimSharedBitmaps();
+        } else {
+            // We're about to be recreated (e.g. after an orientation
+            // change), so hand the photo, and any save in progress, over
+            // to the next instance.
+            mSaver.setCallback(null);
+            mRetainedPhoto.retainSaver(mSaver);
+            if (mPhotoUri != null) {
+                Bitmap bitmap = mLolcatView.detachScaledBitmap();
+                if (bitmap != null) {
+                    mRetainedPhoto.retain(mPhotoUri, bitmap);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        if (LolcatLog.V) LolcatLog.v(TAG, "onLowMemory()...");
+        super.onLowMemory();
+        LolcatView.trimSharedBitmaps();
     }
     
     @Override
@@ -209,36 +301,53 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
     	
     	switch(item.getItemId()) {
     	case R.id.ab_menu_create_pic:
-    		Log.i(TAG, "Menu item open pic selected.");
+    		if (LolcatLog.V) LolcatLog.v(TAG, "Menu item open pic selected.");
     		Intent intent = new Intent(Intent.ACTION_GET_CONTENT, null);
             intent.setType("image/*");
             startActivityForResult(intent, PHOTO_PICKED);
     		return true;
     		
     	case R.id.ab_menu_add_captions:
-    		Log.i(TAG, "Menu item add captions selected.");
+    		if (LolcatLog.V) LolcatLog.v(TAG, "Menu item add captions selected.");
     		showCaptionDialog();
     		return true;
     		
     	case R.id.ab_menu_save_pic:
-    		Log.i(TAG, "Menu item save lolpic selected.");
+    		if (LolcatLog.V) LolcatLog.v(TAG, "Menu item save lolpic selected.");
     		saveImage();
     		return true;
     		
+    	case R.id.ab_menu_export_full_size:
+    		if (LolcatLog.V) LolcatLog.v(TAG, "Menu item save full size selected.");
+    		exportFullSizeImage();
+    		return true;
+    		
+    	case R.id.ab_menu_format_png:
+    		setSaveFormat(SaveFormat.PNG);
+    		return true;
+    		
+    	case R.id.ab_menu_format_jpeg:
+    		setSaveFormat(SaveFormat.JPEG);
+    		return true;
+    		
+    	case R.id.ab_menu_format_webp:
+    		setSaveFormat(SaveFormat.WEBP);
+    		return true;
+    		
     	case R.id.ab_menu_clear_captions:
-    		Log.i(TAG, "Menu item clear captions selected.");
+    		if (LolcatLog.V) LolcatLog.v(TAG, "Menu item clear captions selected.");
     		clearCaptions();
             updateButtons();
     		return true;
     		
     	case R.id.ab_menu_clear_photo:
-    		Log.i(TAG, "Menu item discard lolpic selected.");
+    		if (LolcatLog.V) LolcatLog.v(TAG, "Menu item discard lolpic selected.");
     		clearPhoto();  // Also does clearCaptions()
             updateButtons();
     		return true;
     		
     	default:
-    		Log.w(TAG, "Something totally unexpected was clicked; punting to superclass.");
+    		LolcatLog.w(TAG, "Something totally unexpected was clicked; punting to superclass.");
     		return super.onOptionsItemSelected(item);
     		
     	}
@@ -247,11 +356,12 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
 
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
-        Log.i(TAG, "onActivityResult(request " + requestCode
-              + ", result " + resultCode + ", data " + data + ")...");
+        if (LolcatLog.V) LolcatLog.v(TAG, "onActivityResult(request " + requestCode
+                                     + ", result " + resultCode + ", data " + data + ")...");
 
         if (resultCode != RESULT_OK) {
-            Log.i(TAG, "==> result " + resultCode + " from subactivity!  Ignoring...");
+            if (LolcatLog.V) LolcatLog.v(TAG, "==> result " + resultCode
+                                         + " from subactivity!  Ignoring...");
             Toast t = Toast.makeText(this, R.string.lolcat_nothing_picked, Toast.LENGTH_SHORT);
             t.show();
             return;
@@ -262,7 +372,7 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
             // "content://media/external/images/media/3".
 
             if (data == null) {
-                Log.w(TAG, "Null data, but RESULT_OK, from image picker!");
+                LolcatLog.w(TAG, "Null data, but RESULT_OK, from image picker!");
                 Toast t = Toast.makeText(this, R.string.lolcat_nothing_picked,
                                          Toast.LENGTH_SHORT);
                 t.show();
@@ -270,7 +380,7 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
             }
 
             if (data.getData() == null) {
-                Log.w(TAG, "'data' intent from image picker contained no data!");
+                LolcatLog.w(TAG, "'data' intent from image picker contained no data!");
                 Toast t = Toast.makeText(this, R.string.lolcat_nothing_picked,
                                          Toast.LENGTH_SHORT);
                 t.show();
@@ -286,7 +396,7 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
      * Updates the enabled/disabled state of the onscreen buttons.
      */
     private void updateButtons() {
-        Log.i(TAG, "updateButtons()...");
+        if (LolcatLog.V) LolcatLog.v(TAG, "updateButtons()...");
 
         // Do we have a valid photo and/or caption(s) yet?
         Drawable d = mLolcatView.getDrawable();
@@ -298,6 +408,23 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
         // http://stackoverflow.com/questions/14169040/enable-disable-actionbar-menu-item
         //  ... For some reason, hanging onto MenuItem objects didn't work.
         if (mABSMenu != null) {
+            // The format menu works even during a save (it only affects
+            // the next one.)  WebP needs API 14.
+            SaveFormat format = mSaver.getSaveFormat();
+            mABSMenu.findItem(R.id.ab_menu_format_png)
+                    .setChecked(format == SaveFormat.PNG);
+            mABSMenu.findItem(R.id.ab_menu_format_jpeg)
+                    .setChecked(format == SaveFormat.JPEG);
+            mABSMenu.findItem(R.id.ab_menu_format_webp)
+                    .setVisible(SaveFormat.WEBP.isSupported())
+                    .setChecked(format == SaveFormat.WEBP);
+        }
+
+        if (mABSMenu != null && mSaver.isSaving()) {
+            // Everything stays disabled until the save finishes (which
+            // may have been started by a previous instance.)
+            disableAllMenuItems();
+        } else if (mABSMenu != null) {
             // mPickButton is always enabled.
             // Therefore its ActionBar equivalent must also be enabled
             //  since it gets grayed out during the save process.
@@ -311,6 +438,9 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
         			.setEnabled(validPhoto && validCaption)
         			.setIcon((validPhoto && validCaption) ?
         						R.drawable.save : R.drawable.disabledsave);
+        	mABSMenu.findItem(R.id.ab_menu_export_full_size)
+        			.setVisible(FullResolutionExporter.isSupported())
+        			.setEnabled(validPhoto && validCaption);
         	mABSMenu.findItem(R.id.ab_menu_clear_captions)
         			.setEnabled(validPhoto && validCaption)
         			.setIcon((validPhoto && validCaption) ?
@@ -333,6 +463,8 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
         // SD card...
         mSavedImageFilename = null;
         mSavedImageUri = null;
+        mSavedImageMimeType = null;
+        mSavedImageFingerprint = null;
     }
 
     /**
@@ -340,24 +472,26 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
      * loaded, and no captions.
      */
     private void clearPhoto() {
+        mPhotoLoader.cancel();
         mLolcatView.clear();
 
         mPhotoUri = null;
         mSavedImageFilename = null;
         mSavedImageUri = null;
+        mSavedImageMimeType = null;
+        mSavedImageFingerprint = null;
 
         clearCaptions();
 
-        // Force a gc (to be sure to reclaim the memory used by our
-        // potentially huge bitmap):
-        System.gc();
+        // No need to force a GC here: mLolcatView.clear() hands the
+        // photo's Bitmap straight back to the BitmapPool (or recycles it.)
     }
 
     /**
      * Loads the image with the specified Uri into the UI.
      */
     private void loadPhoto(Uri uri) {
-        Log.i(TAG, "loadPhoto: uri = " + uri);
+        if (LolcatLog.V) LolcatLog.v(TAG, "loadPhoto: uri = " + uri);
 
         clearPhoto();  // Be sure to release the previous bitmap
                        // before creating another one
@@ -366,8 +500,33 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
         // A new photo always starts out uncaptioned.
         clearCaptions();
 
-        // Load the selected photo into our ImageView.
-        mLolcatView.loadFromUri(mPhotoUri);
+        // Load the selected photo into our ImageView.  The decode runs
+        // in the background; see onPhotoLoaded() for the next step.
+        setProgressIndicator(true);
+        mPhotoLoader.load(mPhotoUri, mPhotoLoadedCallback);
+    }
+
+    private final PhotoLoader.Callback mPhotoLoadedCallback = new PhotoLoader.Callback() {
+            public void onPhotoLoaded(Uri uri, Bitmap bitmap) {
+                LolcatActivity.this.onPhotoLoaded(uri, bitmap);
+            }
+        };
+
+    /**
+     * Displays a photo decoded by mPhotoLoader.  Runs on the UI thread.
+     * @see loadPhoto()
+     */
+    private void onPhotoLoaded(Uri uri, Bitmap bitmap) {
+        if (LolcatLog.V) LolcatLog.v(TAG, "onPhotoLoaded: uri = " + uri + ", bitmap = " + bitmap);
+        setProgressIndicator(false);
+
+        if (bitmap == null) {
+            Toast.makeText(this, R.string.lolcat_load_failed, Toast.LENGTH_SHORT).show();
+            mPhotoUri = null;
+        } else {
+            mLolcatView.setScaledBitmap(bitmap);
+        }
+        updateButtons();
     }
 
     private void showCaptionDialog() {
@@ -375,15 +534,9 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
         // item each time it comes up.
         FragmentManager fm = getSupportFragmentManager();
         CaptionDialog dialog = new CaptionDialog();
-        String top = mLolcatView.getTopCaption();
-        String bottom = mLolcatView.getBottomCaption();
-
-        if (top != null || bottom != null) {
-        	Bundle args = new Bundle();
-        	if (top != null) args.putString("topText", top);
-        	if (bottom != null) args.putString("bottomText", bottom);
-        	dialog.setArguments(args);
-        }
+        Bundle args = new Bundle();
+        args.putStringArray(CaptionDialog.CAPTIONS_KEY, mLolcatView.getCaptions());
+        dialog.setArguments(args);
         
         dialog.show(fm, "lolcat_caption_dialog");
         
@@ -397,6 +550,7 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
         Intent intent = new Intent(this, LolcatPicInfoActivity.class);
         intent.putExtra(LolcatPicInfoActivity.INTENT_FILENAME_KEY, mSavedImageFilename);
         intent.putExtra(LolcatPicInfoActivity.INTENT_URI_KEY, mSavedImageUri.toString());
+        intent.putExtra(LolcatPicInfoActivity.INTENT_MIME_TYPE_KEY, mSavedImageMimeType);
         startActivity(intent);
         
     }
@@ -410,288 +564,173 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
      * the SD card, in preparation for viewing it later and/or sharing it.
      */
     private void saveImage() {
-        Log.i(TAG, "saveImage()...");
+        if (LolcatLog.V) LolcatLog.v(TAG, "saveImage()...");
+        if (mSaver.isSaving()) {
+            LolcatLog.w(TAG, "Already saving; ignoring this request.");
+            return;
+        }
+
+        String fingerprint = getRenderFingerprint();
+        mSavingImageFingerprint = fingerprint;
 
         setProgressIndicator(true);
         disableAllMenuItems();
 
+        // If nothing has changed since the last successful save, there's
+        // no need to encode and scan a whole new copy of the same image:
+        // mSaver just checks (off the UI thread, since it means touching
+        // the SD card) that the file is still there.
+        if (fingerprint.equals(mSavedImageFingerprint) && mSavedImageUri != null
+                && mSavedImageFilename != null) {
+            if (LolcatLog.V) LolcatLog.v(TAG, "- unchanged since last save: " + mSavedImageUri);
+            mSaver.reuse(mSavedImageFilename, mSavedImageUri, mSaveFinishedCallback);
+            // Next step: onSaveFinished()
+            return;
+        }
+        startSave();
+    }
+
+    /**
+     * The second half of saveImage(): renders and saves a new copy of
+     * the image.
+     */
+    private void startSave() {
+        // Flatten the captions into the photo here in the UI thread (the
+        // LolcatView only composites them onscreen), so the worker thread
+        // gets a Bitmap nobody else will touch.
+        Bitmap bitmap = mLolcatView.renderWorkingBitmap();
+
         // We now need to save the bitmap to the SD card, and then ask the
-        // MediaScanner to scan it.  Do the actual work of all this in a
-        // helper thread, since it's fairly slow (and will occasionally
+        // MediaScanner to scan it.  mSaver does all of this in a
+        // background thread, since it's fairly slow (and will occasionally
         // ANR if we do it here in the UI thread.)
-
-        Thread t = new Thread() {
-                public void run() {
-                    Log.i(TAG, "Running worker thread...");
-                    saveImageInternal();
-                }
-            };
-        t.start();
-        // Next steps:
-        // - saveImageInternal()
-        // - onMediaScannerConnected()
-        // - onScanCompleted
+        mSaver.save(bitmap, mSaveFinishedCallback);
+        // Next step: onSaveFinished()
     }
 
     /**
-     * Saves the LolcatView's working Bitmap to the SD card, in
-     * preparation for viewing it later and/or sharing it.
-     *
-     * The bitmap will be saved as a new file in the directory
-     * LOLCAT_SAVE_DIRECTORY, with an automatically-generated filename
-     * based on the current time.  It also connects to the
-     * MediaScanner service, since we'll need to scan that new file (in
-     * order to get a Uri we can then VIEW or share.)
-     *
-     * This method is run in a worker thread; @see saveImage().
+     * Like saveImage(), but saves the lolcat at the full resolution of
+     * the original photo rather than the scaled-down copy we edit.
+     * That's much slower, so it's a separate menu item rather than the
+     * default.
      */
-    private void saveImageInternal() {
-        Log.i(TAG, "saveImageInternal()...");
-
-        // TODO: Currently we save the bitmap to a file on the sdcard,
-        // then ask the MediaScanner to scan it (which gives us a Uri we
-        // can then do an ACTION_VIEW on.)  But rather than doing these
-        // separate steps, maybe there's some easy way (given an
-        // OutputStream) to directly talk to the MediaProvider
-        // (i.e. com.android.provider.MediaStore) and say "here's an
-        // image, please save it somwhere and return the URI to me"...
-
-        // Save the bitmap to a file on the sdcard.
-        // (Based on similar code in MusicUtils.java.)
-        // TODO: Make this filename more human-readable?  Maybe "Lolcat-YYYY-MM-DD-HHMMSS.png"?
-        String filename = Environment.getExternalStorageDirectory()
-                + "/" + LOLCAT_SAVE_DIRECTORY
-                + String.valueOf(System.currentTimeMillis() + SAVED_IMAGE_EXTENSION);
-        Log.i(TAG, "- filename: '" + filename + "'");
-        
-        // We need to make sure the SD card is available here BEFORE we try to create files.
-        // Code "borrowed" from developer guide on data storage:
-        // http://developer.android.com/guide/topics/data/data-storage.html#filesExternal
-        boolean mExternalStorageAvailable = false;
-        boolean mExternalStorageWriteable = false;
-        String state = Environment.getExternalStorageState();
-        
-        if (Environment.MEDIA_MOUNTED.equals(state)) {
-            // We can read and write the media
-        	Log.i(TAG, "Storage is read-write");
-            mExternalStorageAvailable = mExternalStorageWriteable = true;
-        } else if (Environment.MEDIA_MOUNTED_READ_ONLY.equals(state)) {
-            // We can only read the media
-        	Log.w(TAG, "Storage is read-only");
-            mExternalStorageAvailable = true;
-            mExternalStorageWriteable = false;
-        } else {
-            // Something else is wrong. It may be one of many other states, but all we need
-            //  to know is we can neither read nor write
-        	Log.e(TAG, "Something is wrong with the SD card storage.");
-            mExternalStorageAvailable = mExternalStorageWriteable = false;
+    private void exportFullSizeImage() {
+        if (LolcatLog.V) LolcatLog.v(TAG, "exportFullSizeImage()...");
+        if (mSaver.isSaving()) {
+            LolcatLog.w(TAG, "Already saving; ignoring this request.");
+            return;
         }
-
-        // The method CREATES the file here in the if clause if it doesn't exist.
-        if (mExternalStorageAvailable && mExternalStorageWriteable && ensureFileExists(filename)) {
-            try {
-                OutputStream outstream = new FileOutputStream(filename);
-                Bitmap bitmap = mLolcatView.getWorkingBitmap();
-                boolean success = bitmap.compress(SAVED_IMAGE_COMPRESS_FORMAT,
-                                                  100, outstream);
-                Log.i(TAG, "- success code from Bitmap.compress: " + success);
-                outstream.close();
-
-                if (success) {
-                    Log.i(TAG, "- Saved!  filename = " + filename);
-                    mSavedImageFilename = filename;
-
-                    // Ok, now we need to get the MediaScanner to scan the
-                    // file we just wrote.  Step 1 is to get our
-                    // MediaScannerConnection object to connect to the
-                    // MediaScanner service.
-                    mMediaScannerConnection.connect();
-                    // See onMediaScannerConnected() for the next step
-                } else {
-                    Log.w(TAG, "Bitmap.compress failed: bitmap " + bitmap
-                          + ", filename '" + filename + "'");
-                    onSaveFailed(R.string.lolcat_save_failed);
-                }
-            } catch (FileNotFoundException e) {
-                Log.w(TAG, "error creating file", e);
-                onSaveFailed(R.string.lolcat_save_failed);
-            } catch (IOException e) {
-                Log.w(TAG, "error creating file", e);
-                onSaveFailed(R.string.lolcat_save_failed);
-            }
-        } else {
-            Log.w(TAG, "ensureFileExists failed for filename '" + filename + "'");
-            onSaveFailed(R.string.lolcat_save_failed);
+        FullResolutionExporter exporter =
+                mLolcatView.newFullResolutionExporter(getContentResolver(), mPhotoUri);
+        if (exporter == null || mPhotoUri == null) {
+            LolcatLog.w(TAG, "No photo to export!");
+            return;
         }
-    }
+        // A full-size copy never matches a regular save.
+        mSavingImageFingerprint = null;
 
+        setProgressIndicator(true);
+        disableAllMenuItems();
 
-    //
-    // MediaScanner-related code
-    //
+        mSaver.exportFullResolution(exporter, mSaveFinishedCallback);
+        // Next step: onSaveFinished()
+    }
 
     /**
-     * android.media.MediaScannerConnection.MediaScannerConnectionClient implementation.
+     * @return a string that's equal for two saves if and only if they
+     *         would produce the same image.
      */
-    private MediaScannerConnection.MediaScannerConnectionClient mMediaScanConnClient =
-        new MediaScannerConnection.MediaScannerConnectionClient() {
-            /**
-             * Called when a connection to the MediaScanner service has been established.
-             */
-            public void onMediaScannerConnected() {
-                Log.i(TAG, "MediaScannerConnectionClient.onMediaScannerConnected...");
-                // The next step happens in the UI thread:
-                mHandler.post(new Runnable() {
-                        public void run() {
-                            LolcatActivity.this.onMediaScannerConnected();
-                        }
-                    });
-            }
+    private String getRenderFingerprint() {
+        return mPhotoUri + "\n" + mSaver.getSaveFormat() + "@" + mSaver.getQuality()
+                + "\n" + mLolcatView.getRenderFingerprint();
+    }
 
-            /**
-             * Called when the media scanner has finished scanning a file.
-             * @param path the path to the file that has been scanned.
-             * @param uri the Uri for the file if the scanning operation succeeded
-             *        and the file was added to the media database, or null if scanning failed.
-             */
-            public void onScanCompleted(final String path, final Uri uri) {
-                Log.i(TAG, "MediaScannerConnectionClient.onScanCompleted: path "
-                      + path + ", uri " + uri);
-                // Just run the "real" onScanCompleted() method in the UI thread:
-                mHandler.post(new Runnable() {
-                        public void run() {
-                            LolcatActivity.this.onScanCompleted(path, uri);
-                        }
-                    });
+    private final LolcatSaver.Callback mSaveFinishedCallback = new LolcatSaver.Callback() {
+            public void onSaveFinished(LolcatSaver.Result result) {
+                LolcatActivity.this.onSaveFinished(result);
             }
         };
 
     /**
-     * This method is called when our MediaScannerConnection successfully
-     * connects to the MediaScanner service.  At that point we fire off a
-     * request to scan the lolcat image we just saved.
-     *
-     * This needs to run in the UI thread, so it's called from
-     * mMediaScanConnClient's onMediaScannerConnected() method via our Handler.
+     * Updates the UI after mSaver finishes (or fails) saving and scanning
+     * the image.  Runs on the UI thread.
      */
-    private void onMediaScannerConnected() {
-        Log.i(TAG, "onMediaScannerConnected()...");
-
-        // Update the message in the progress dialog...
-        // mSaveProgressDialog.setMessage(getResources().getString(R.string.lolcat_scanning));
-        // Heh. Let's fire off a Toast instead.
-        Toast.makeText(this, R.string.lolcat_scanning, Toast.LENGTH_SHORT).show();
-
-        // Fire off a request to the MediaScanner service to scan this
-        // file; we'll get notified when the scan completes.
-        Log.i(TAG, "- Requesting scan for file: " + mSavedImageFilename);
-        mMediaScannerConnection.scanFile(mSavedImageFilename,
-                                         null /* mimeType */);
-
-        // Next step: mMediaScanConnClient will get an onScanCompleted() callback,
-        // which calls our own onScanCompleted() method via our Handler.
-    }
-
-    /**
-     * Updates the UI after the media scanner finishes the scanFile()
-     * request we issued from onMediaScannerConnected().
-     *
-     * This needs to run in the UI thread, so it's called from
-     * mMediaScanConnClient's onScanCompleted() method via our Handler.
-     */
-    private void onScanCompleted(String path, final Uri uri) {
-        Log.i(TAG, "onScanCompleted: path " + path + ", uri " + uri);
-        mMediaScannerConnection.disconnect();
-
-        if (uri == null) {
-            Log.w(TAG, "onScanCompleted: scan failed.");
+    private void onSaveFinished(LolcatSaver.Result result) {
+        if (LolcatLog.V) LolcatLog.v(TAG, "onSaveFinished: " + result);
+
+        if (result.reused && !result.success) {
+            // The last save's file is gone (deleted from the gallery, say),
+            // so save a new copy after all.  The progress indicator stays up.
+            if (LolcatLog.V) LolcatLog.v(TAG, "- last save is gone; saving again.");
+            mSavedImageFilename = null;
             mSavedImageUri = null;
-            onSaveFailed(R.string.lolcat_scan_failed);
+            mSavedImageMimeType = null;
+            mSavedImageFingerprint = null;
+            startSave();
             return;
         }
 
-        // Success!
-
-        // dismissDialog(DIALOG_SAVE_PROGRESS);
         setProgressIndicator(false);
         updateButtons();
 
-        // We can now access the saved lolcat image using the specified Uri.
-        mSavedImageUri = uri;
+        if (!result.success) {
+            mSavedImageFilename = null;
+            mSavedImageUri = null;
+            mSavedImageMimeType = null;
+            mSavedImageFingerprint = null;
+            Toast.makeText(this, result.errorMessageResId, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        // Success!  We can now access the saved lolcat image using the
+        // specified Uri.
+        mSavedImageFilename = result.filename;
+        mSavedImageUri = result.uri;
+        mSavedImageMimeType = result.format.getMimeType();
+        mSavedImageFingerprint = mSavingImageFingerprint;
 
         // Bring up a success dialog, giving the user the option to go to
         // the pictures app (so you can share the image).
         showSaveSuccessDialog();
     }
 
-
-    //
-    // Other misc utility methods
-    //
-
-    /**
-     * Ensure that the specified file exists on the SD card, creating it
-     * if necessary.
-     *
-     * Copied from MediaProvider / MusicUtils.
-     *
-     * @return true if the file already exists, or we
-     *         successfully created it.
-     */
-    private static boolean ensureFileExists(String path) {
-        File file = new File(path);
-        if (file.exists()) {
-            return true;
-        } else {
-            // we will not attempt to create the first directory in the path
-            // (for example, do not create /sdcard if the SD card is not mounted)
-            int secondSlash = path.indexOf('/', 1);
-            if (secondSlash < 1) return false;
-            String directoryPath = path.substring(0, secondSlash);
-            File directory = new File(directoryPath);
-            if (!directory.exists())
-                return false;
-            file.getParentFile().mkdirs();
-            // Bug: Manifest lacked permission to write to SD card. FIXED.
-            try {
-                return file.createNewFile();
-            } catch (IOException ioe) {
-                Log.w(TAG, "File creation failed", ioe);
-            }
-            return false;
-        }
-    }
-
-    /**
-     * Updates the UI after a failure anywhere in the bitmap saving / scanning
-     * sequence.
-     */
-    private void onSaveFailed(int errorMessageResId) {
-        
-//        dismissDialog(DIALOG_SAVE_PROGRESS);
-        setProgressIndicator(false);
-        updateButtons();
-    	
-        // Refactor: The original code would throw a RuntimeException because
-        //   the Toast entered a race condition with the Thread execution.
-        //   Sticking the Toast code in a runOnUiThread call solves this.
-        //   Parameter and activity references finalized for thread safety.
-        final Activity a = (Activity) this;
-        final int resId = errorMessageResId;
-        runOnUiThread(new Runnable() {
-        	public void run() { Toast.makeText(a, resId, Toast.LENGTH_SHORT).show(); }
-        });
-        
-    }
-
 	@Override
-	public void onFinishEditCaptions(String topText, String bottomText) {
-		Log.i(TAG, "onFinishEditCaptions()...");
+	public void onFinishEditCaptions(String[] captions) {
+		if (LolcatLog.V) LolcatLog.v(TAG, "onFinishEditCaptions()...");
 		
-		Log.i(TAG, "Top caption: '" + topText + "'");
-        Log.i(TAG, "Bottom caption: '" + bottomText + "'");
-
-        mLolcatView.setCaptions(topText, bottomText);
+		if (LolcatLog.V) LolcatLog.v(TAG, "Captions: " + Arrays.toString(captions));
+
+        // Build the new set of captions as one CaptionDocument, so the
+        // LolcatView only re-renders once however many captions changed.
+        // The captions we already have stay in place (and unchanged ones
+        // keep their bounding boxes); the ones that were emptied are
+        // removed, or, for the top and bottom ones, left empty; and any
+        // new ones go in their default positions.
+        CaptionDocument current = mLolcatView.getCaptionDocument();
+        int existing = current.getCaptionCount();
+        int count = 0;
+        for (int i = 0; i < Math.max(existing, captions.length); i++) {
+            String text = (i < captions.length) ? captions[i] : "";
+            if (!TextUtils.isEmpty(text) || i < LolcatView.MIN_CAPTIONS) count++;
+        }
+        CaptionDocument doc = new CaptionDocument(current.getStrokeWidth(), count);
+        int index = 0;
+        for (int i = 0; i < Math.max(existing, captions.length); i++) {
+            String text = (i < captions.length) ? captions[i] : "";
+            if (TextUtils.isEmpty(text)) {
+                if (i < LolcatView.MIN_CAPTIONS) {
+                    doc.setCaption(index++, "", false, 0, 0, null);
+                }
+            } else if (i >= existing) {
+                doc.setCaption(index++, text, false, 0, 0, null);
+            } else {
+                boolean unchanged = text.equals(current.getText(i));
+                doc.setCaption(index++, text, current.hasPosition(i),
+                               current.getX(i), current.getY(i),
+                               unchanged ? current.getBoundingBox(i) : null);
+            }
+        }
+        mLolcatView.setCaptionDocument(doc);
         updateButtons();		
 	}
 	
@@ -705,6 +744,8 @@ public class LolcatActivity extends Activity implements CaptionDialogListener {
 		mABSMenu.findItem(R.id.ab_menu_save_pic)
 				.setEnabled(false)
 				.setIcon(R.drawable.disabledsave);
+		mABSMenu.findItem(R.id.ab_menu_export_full_size)
+				.setEnabled(false);
 		mABSMenu.findItem(R.id.ab_menu_clear_captions)
 				.setEnabled(false)
 				.setIcon(R.drawable.disabledundo);
@@ -0,0 +1,504 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Process;
+
+/**
+ * Makes a whole batch of lolcats (see BatchManifest), without any UI.
+ *
+ * The work is split into a three-stage pipeline, so that each kind of
+ * work runs on as many threads as makes sense for it:
+ *
+ * 1. Render: decode each photo and draw its captions, on a pool of
+ *    worker threads (one per CPU core, by default), since decoding a
+ *    multi-megapixel JPEG is often the most expensive step of all.
+ * 2. Compress: encode the rendered lolcats into memory, on another pool
+ *    of the same size.
+ * 3. Write: write the encoded lolcats to the SD card, one at a time, on
+ *    a single I/O thread (parallel writes to flash only get in each
+ *    other's way.)
+ *
+ * The stages are connected by small bounded queues.  When a later stage
+ * falls behind, the earlier one blocks instead of piling up work, so no
+ * matter how big the batch is, there are never more than about three
+ * rendered Bitmaps (and two encoded images) in memory per thread in a
+ * stage.  The Bitmaps come from (and go back to) a BitmapPool.
+ *
+ * Every entry is attempted, even if some fail; run() returns (and writes
+ * to a CSV file next to the lolcats) a report of what happened to each.
+ */
+final class LolcatBatch {
+    private static final String TAG = "LolcatBatch";
+
+    /**
+     * Receives progress updates from run().  Called on any of the
+     * pipeline's threads, possibly concurrently.
+     */
+    interface Listener {
+        void onProgress(int finished, int failed, int total);
+    }
+
+    /**
+     * What happened to one entry of the manifest.
+     */
+    static final class ItemResult {
+        final BatchManifest.Entry entry;
+        final File output;  // null on failure
+        final String error;  // null on success
+
+        ItemResult(BatchManifest.Entry entry, File output, String error) {
+            this.entry = entry;
+            this.output = output;
+            this.error = error;
+        }
+
+        boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * What happened to the whole batch.
+     */
+    static final class Report {
+        int total;
+        int succeeded;
+        final List<ItemResult> failures = new ArrayList<ItemResult>();
+        File reportFile;  // null if it couldn't be written
+        long elapsedMillis;
+
+        @Override
+        public String toString() {
+            return "Report[" + succeeded + "/" + total + " succeeded, " + failures.size()
+                    + " failed, in " + elapsedMillis + " ms; report " + reportFile + "]";
+        }
+    }
+
+    /**
+     * A lolcat on its way through the pipeline.
+     */
+    private static final class Item {
+        final int index;  // in the list passed to run()
+        final BatchManifest.Entry entry;
+        Bitmap lolcat;  // between rendering and compressing
+        ByteArrayOutputStream encoded;  // between compressing and writing
+
+        Item(int index, BatchManifest.Entry entry) {
+            this.index = index;
+            this.entry = entry;
+        }
+    }
+
+    // Sent down the pipeline after the last Item, one per thread of the
+    // next stage, by whichever thread of a stage finishes last.
+    private static final Item END = new Item(-1, null);
+
+    private final Context mContext;
+    private final BitmapPool mPool;
+    private final SaveFormat mFormat;
+    private final int mQuality;
+    private final File mOutputDirectory;
+    private final String mName;
+    private final int mThreads;
+
+    // State of the current run(), shared by all the stages
+    private List<BatchManifest.Entry> mEntries;
+    private final AtomicInteger mNextEntry = new AtomicInteger();
+    private ItemResult[] mResults;
+    private final AtomicInteger mFinished = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+    private Listener mListener;
+
+    /**
+     * @param outputDirectory where to write the lolcats (which must exist.)
+     * @param name prefix for the names of the files written.
+     * @param threads how many lolcats to render, and to compress, at once.
+     */
+    public LolcatBatch(Context context, BitmapPool pool, SaveFormat format, int quality,
+                       File outputDirectory, String name, int threads) {
+        mContext = context.getApplicationContext();
+        mPool = pool;
+        mFormat = format;
+        mQuality = quality;
+        mOutputDirectory = outputDirectory;
+        mName = name;
+        mThreads = Math.max(1, threads);
+    }
+
+    /**
+     * @return the number of threads per stage that makes sense on this device.
+     */
+    public static int defaultThreadCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Makes every lolcat in the list, blocking until they're all done.
+     * Must not be called on the UI thread, and a LolcatBatch can only
+     * run() one list at a time.
+     *
+     * @throws InterruptedException if the calling thread is interrupted,
+     *         in which case the lolcats in progress are abandoned.
+     */
+    public Report run(List<BatchManifest.Entry> entries, Listener listener)
+            throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        final int total = entries.size();
+        mEntries = entries;
+        mNextEntry.set(0);
+        mResults = new ItemResult[total];
+        mFinished.set(0);
+        mFailed.set(0);
+        mListener = listener;
+        if (LolcatLog.V) LolcatLog.v(TAG, "run: " + total + " entries, " + mThreads
+                                     + " threads per stage, as " + mFormat + "@" + mQuality);
+
+        // Room for one waiting Item per thread of the next stage, on top
+        // of the ones they're working on.
+        BlockingQueue<Item> rendered = new ArrayBlockingQueue<Item>(mThreads);
+        BlockingQueue<Item> encoded = new ArrayBlockingQueue<Item>(mThreads);
+        CountDownLatch written = new CountDownLatch(1);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                2 * mThreads + 1, 2 * mThreads + 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "LolcatBatch #" + mCount.incrementAndGet());
+                    }
+                });
+        try {
+            AtomicInteger rendering = new AtomicInteger(mThreads);
+            AtomicInteger compressing = new AtomicInteger(mThreads);
+            for (int i = 0; i < mThreads; i++) {
+                executor.execute(new RenderStage(rendered, rendering));
+                executor.execute(new CompressStage(rendered, encoded, compressing));
+            }
+            executor.execute(new WriteStage(encoded, written));
+            written.await();
+        } finally {
+            executor.shutdownNow();
+            // If we were interrupted, don't strand the Bitmaps still queued.
+            for (Item item : rendered) {
+                mPool.put(item.lolcat);
+            }
+        }
+
+        Report report = new Report();
+        report.total = total;
+        for (int i = 0; i < total; i++) {
+            if (mResults[i] == null) {
+                // Lost along with a stage thread that died of something
+                // we didn't expect; make sure the report still covers it.
+                mResults[i] = new ItemResult(entries.get(i), null, "Not finished");
+            }
+            ItemResult result = mResults[i];
+            if (result.isSuccess()) {
+                report.succeeded++;
+            } else {
+                report.failures.add(result);
+            }
+        }
+        report.reportFile = writeReport(mResults);
+        report.elapsedMillis = System.currentTimeMillis() - start;
+        mEntries = null;
+        mResults = null;
+        mListener = null;
+        if (LolcatLog.V) LolcatLog.v(TAG, "run: finished: " + report);
+        return report;
+    }
+
+    /**
+     * Records what happened to an Item (at whichever stage it ended up.)
+     */
+    private void finish(Item item, File output, String error) {
+        mResults[item.index] = new ItemResult(item.entry, output, error);
+        int failed = (error != null) ? mFailed.incrementAndGet() : mFailed.get();
+        int finished = mFinished.incrementAndGet();
+        if (mListener != null) {
+            mListener.onProgress(finished, failed, mResults.length);
+        }
+    }
+
+    /**
+     * Sends one END per consumer down a stage's output queue, if the
+     * calling thread is the last of its stage to finish.  Called from
+     * finally blocks, so that the next stage always finds out it's done
+     * however the threads of this one exit.
+     */
+    private static void endStage(AtomicInteger running, BlockingQueue<Item> out,
+                                 int consumers) {
+        if (running.decrementAndGet() != 0) return;
+        try {
+            for (int i = 0; i < consumers; i++) {
+                out.put(END);
+            }
+        } catch (InterruptedException e) {
+            // The whole run() is being abandoned, so nobody's waiting.
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stage 1: decodes photos and draws their captions, taking entries in
+     * order until they run out.
+     */
+    private class RenderStage implements Runnable {
+        private final BlockingQueue<Item> mOut;
+        private final AtomicInteger mRunning;
+        private final CaptionRenderer mRenderer =
+                new CaptionRenderer(1f, null /* no sprite cache */);
+
+        RenderStage(BlockingQueue<Item> out, AtomicInteger running) {
+            mOut = out;
+            mRunning = running;
+        }
+
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            try {
+                int index;
+                while ((index = mNextEntry.getAndIncrement()) < mResults.length) {
+                    Item item = new Item(index, mEntries.get(index));
+                    String error = render(item);
+                    if (error != null) {
+                        finish(item, null, error);
+                        continue;
+                    }
+                    try {
+                        mOut.put(item);  // blocks if the compressors are behind
+                    } catch (InterruptedException e) {
+                        mPool.put(item.lolcat);
+                        throw e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (LolcatLog.V) LolcatLog.v(TAG, "render stage interrupted.");
+            } finally {
+                endStage(mRunning, mOut, mThreads);
+            }
+        }
+
+        /**
+         * Decodes the Item's photo and draws its captions into item.lolcat.
+         *
+         * @return an error message, or null on success.
+         */
+        private String render(Item item) {
+            BatchManifest.Entry entry = item.entry;
+            if (entry.error != null) return entry.error;
+
+            Bitmap photo = null;
+            try {
+                photo = ScaledBitmapDecoder.decode(mContext.getContentResolver(),
+                                                   Uri.parse(entry.uri),
+                                                   LolcatView.SCALED_IMAGE_MAX_DIMENSION,
+                                                   new BitmapFactory.Options(), mPool);
+                if (photo == null) return "Couldn't decode photo";
+                item.lolcat = mRenderer.render(photo, entry.captions, mPool);
+                return null;
+            } catch (IOException e) {
+                LolcatLog.w(TAG, "error rendering #" + entry.number, e);
+                return e.toString();
+            } catch (RuntimeException e) {
+                // e.g. a SecurityException from the photo's ContentProvider
+                LolcatLog.w(TAG, "error rendering #" + entry.number, e);
+                return e.toString();
+            } catch (OutOfMemoryError e) {
+                LolcatLog.w(TAG, "out of memory rendering #" + entry.number, e);
+                return "Out of memory";
+            } finally {
+                mPool.put(photo);
+            }
+        }
+    }
+
+    /**
+     * Stage 2: compresses rendered Items into memory.
+     */
+    private class CompressStage implements Runnable {
+        private final BlockingQueue<Item> mIn;
+        private final BlockingQueue<Item> mOut;
+        private final AtomicInteger mRunning;
+
+        CompressStage(BlockingQueue<Item> in, BlockingQueue<Item> out, AtomicInteger running) {
+            mIn = in;
+            mOut = out;
+            mRunning = running;
+        }
+
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            try {
+                Item item;
+                while ((item = mIn.take()) != END) {
+                    String error = compress(item);
+                    if (error != null) {
+                        finish(item, null, error);
+                    } else {
+                        mOut.put(item);  // blocks if the writer is behind
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (LolcatLog.V) LolcatLog.v(TAG, "compress stage interrupted.");
+            } finally {
+                endStage(mRunning, mOut, 1 /* writer */);
+            }
+        }
+
+        private String compress(Item item) {
+            try {
+                Bitmap.CompressFormat format = mFormat.getCompressFormat();
+                if (format == null) return "Can't encode " + mFormat + " on this device";
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                if (!item.lolcat.compress(format, mQuality, out)) {
+                    return "Bitmap.compress failed";
+                }
+                item.encoded = out;
+                return null;
+            } catch (RuntimeException e) {
+                // e.g. an IllegalStateException for a recycled Bitmap
+                LolcatLog.w(TAG, "error compressing #" + item.entry.number, e);
+                return e.toString();
+            } catch (OutOfMemoryError e) {
+                LolcatLog.w(TAG, "out of memory compressing #" + item.entry.number, e);
+                return "Out of memory";
+            } finally {
+                mPool.put(item.lolcat);
+                item.lolcat = null;
+            }
+        }
+    }
+
+    /**
+     * Stage 3: writes compressed Items to files.
+     */
+    private class WriteStage implements Runnable {
+        private final BlockingQueue<Item> mIn;
+        private final CountDownLatch mDone;
+
+        WriteStage(BlockingQueue<Item> in, CountDownLatch done) {
+            mIn = in;
+            mDone = done;
+        }
+
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            try {
+                Item item;
+                while ((item = mIn.take()) != END) {
+                    write(item);
+                }
+            } catch (InterruptedException e) {
+                if (LolcatLog.V) LolcatLog.v(TAG, "write stage interrupted.");
+            } finally {
+                mDone.countDown();
+            }
+        }
+
+        private void write(Item item) {
+            File file = new File(mOutputDirectory,
+                                 mName + "-" + item.entry.number + mFormat.getExtension());
+            // No fsync() per lolcat: a crash can't leave a partial file
+            // behind either way, and the report says what got written.
+            SafeFileWriter writer = new SafeFileWriter(file, false /* sync */);
+            try {
+                item.encoded.writeTo(writer.startWrite());
+                writer.finishWrite();
+            } catch (IOException e) {
+                LolcatLog.w(TAG, "error writing #" + item.entry.number, e);
+                finish(item, null, e.toString());
+                return;
+            } catch (RuntimeException e) {
+                LolcatLog.w(TAG, "error writing #" + item.entry.number, e);
+                finish(item, null, e.toString());
+                return;
+            } finally {
+                writer.abortWrite();
+                item.encoded = null;
+            }
+
+            // Let the MediaScanner find it in its own time, rather than
+            // waiting for a scan of each of hundreds of files.  (The file's
+            // written either way, so a failure here isn't the lolcat's.)
+            try {
+                mContext.sendBroadcast(new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE,
+                                                  Uri.fromFile(file)));
+            } catch (RuntimeException e) {
+                LolcatLog.w(TAG, "couldn't request a scan of " + file, e);
+            }
+            if (LolcatLog.V) LolcatLog.v(TAG, "- #" + item.entry.number + " ==> " + file);
+            finish(item, file, null);
+        }
+    }
+
+    /**
+     * Writes a CSV file listing what happened to every entry.
+     *
+     * @return the file, or null if it couldn't be written.
+     */
+    private File writeReport(ItemResult[] results) {
+        File file = new File(mOutputDirectory, mName + "-report.csv");
+        SafeFileWriter writer = new SafeFileWriter(file, true /* sync */);
+        try {
+            Writer out = new OutputStreamWriter(writer.startWrite(), "UTF-8");
+            out.write("number,uri,status,detail\n");
+            for (ItemResult result : results) {
+                out.write(result.entry.number + "," + quote(result.entry.uri) + ","
+                          + (result.isSuccess() ? "ok" : "failed") + ","
+                          + quote(result.isSuccess() ? result.output.getName() : result.error)
+                          + "\n");
+            }
+            out.flush();
+            writer.finishWrite();
+            return file;
+        } catch (IOException e) {
+            LolcatLog.w(TAG, "error writing " + file, e);
+            return null;
+        } finally {
+            writer.abortWrite();
+        }
+    }
+
+    private static String quote(String s) {
+        if (s == null) return "";
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import android.util.Log;
+
+/**
+ * Logging for the lolcat package.
+ *
+ * Verbose tracing should always be written as
+ *
+ *     if (LolcatLog.V) LolcatLog.v(TAG, "foo: " + foo);
+ *
+ * V is a compile-time constant that's false in release builds, so the
+ * compiler strips both the call and the string concatenation that builds
+ * its message: tracing in hot paths like LolcatView.onTouchEvent() and
+ * onDraw() costs nothing in production.
+ *
+ * Warnings and errors are logged in every build, but can be turned down
+ * at runtime for the whole package, without a rebuild, through the
+ * standard log.tag property for LOG_TAG:
+ *
+ *     adb shell setprop log.tag.Lolcat ERROR      # errors only
+ *     adb shell setprop log.tag.Lolcat SUPPRESS   # nothing
+ *
+ * (The property is read on every call, so a change takes effect at once;
+ * w() and e() aren't called anywhere hot enough for that to matter.)
+ * Verbose tracing still needs V as well, so it never appears in release
+ * builds whatever the property says.
+ */
+final class LolcatLog {
+
+    /** True if verbose tracing is compiled in at all. */
+    static final boolean V = BuildConfig.DEBUG;
+
+    /** The tag whose log.tag property sets the package's log level. */
+    static final String LOG_TAG = "Lolcat";
+
+    private LolcatLog() { }
+
+    /**
+     * @return true if messages at the specified android.util.Log level
+     *         should be logged, according to the log.tag property for
+     *         LOG_TAG.  (Unset, that's INFO and above.)
+     */
+    static boolean isLoggable(int level) {
+        return Log.isLoggable(LOG_TAG, level);
+    }
+
+    /**
+     * Logs a verbose trace message.  Callers should check V first; see
+     * the class comment.
+     */
+    static void v(String tag, String msg) {
+        if (V) {
+            Log.v(tag, msg);
+        }
+    }
+
+    static void w(String tag, String msg) {
+        if (isLoggable(Log.WARN)) {
+            Log.w(tag, msg);
+        }
+    }
+
+    static void w(String tag, String msg, Throwable tr) {
+        if (isLoggable(Log.WARN)) {
+            Log.w(tag, msg, tr);
+        }
+    }
+
+    static void e(String tag, String msg) {
+        if (isLoggable(Log.ERROR)) {
+            Log.e(tag, msg);
+        }
+    }
+
+    static void e(String tag, String msg, Throwable tr) {
+        if (isLoggable(Log.ERROR)) {
+            Log.e(tag, msg, tr);
+        }
+    }
+}
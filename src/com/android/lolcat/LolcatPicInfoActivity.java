@@ -7,7 +7,6 @@ import org.holoeverywhere.widget.Toast;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
-import android.util.Log;
 
 import com.actionbarsherlock.app.ActionBar;
 import com.actionbarsherlock.view.Menu;
@@ -18,12 +17,13 @@ public class LolcatPicInfoActivity extends Activity {
 	
 	public static final String INTENT_FILENAME_KEY = "lolpic-filename";
 	public static final String INTENT_URI_KEY = "lolpic-uri";
+	public static final String INTENT_MIME_TYPE_KEY = "lolpic-mime-type";
 	
 	private static final String TAG = "LolcatActivity.LolcatPicInfoActivity";
-	private static final String SAVED_IMAGE_MIME_TYPE = "image/png";
 	
 	private TextView mTitle, mFileName, mURI;
 	private String mFName;
+	private String mMimeType;
 	private Uri mFURI;
 	
 	/* (non-Javadoc)
@@ -48,6 +48,9 @@ public class LolcatPicInfoActivity extends Activity {
 		if (s != null) mFURI = Uri.parse(s);
 		mURI.setText("File URI: " + s);
 		
+		mMimeType = intent.getStringExtra(INTENT_MIME_TYPE_KEY);
+		if (mMimeType == null) mMimeType = SaveFormat.PNG.getMimeType();
+		
 		ActionBar actionBar = getSupportActionBar();
 		actionBar.setDisplayHomeAsUpEnabled(true);
 	}
@@ -63,17 +66,17 @@ public class LolcatPicInfoActivity extends Activity {
 	public boolean onOptionsItemSelected(MenuItem item) {
 		switch (item.getItemId()) {
 		case android.R.id.home:
-			Log.i(TAG, "Action Bar home selector tapped.");
+			if (LolcatLog.V) LolcatLog.v(TAG, "Action Bar home selector tapped.");
 			finish();
 			return true;
 		case R.id.ab_menu_view:
-			Log.i(TAG, "View menu item tapped.");
+			if (LolcatLog.V) LolcatLog.v(TAG, "View menu item tapped.");
 			if (mFURI == null) {
 				warnUser("Can't view in gallery app: URI is null.");
 				return true;
 			}
 			Intent intent = new Intent(Intent.ACTION_VIEW, mFURI);
-			Log.i(TAG, "Starting activity to view " + mFURI);
+			if (LolcatLog.V) LolcatLog.v(TAG, "Starting activity to view " + mFURI);
 			startActivity(intent);
 			return true;
 		case R.id.ab_menu_share:
@@ -83,7 +86,7 @@ public class LolcatPicInfoActivity extends Activity {
 			}
 			Intent intentTwo = new Intent();
 			intentTwo.setAction(Intent.ACTION_SEND);
-			intentTwo.setType(SAVED_IMAGE_MIME_TYPE);
+			intentTwo.setType(mMimeType);
 			intentTwo.putExtra(Intent.EXTRA_STREAM, mFURI);
 	        try {
 	            startActivity(
@@ -91,7 +94,7 @@ public class LolcatPicInfoActivity extends Activity {
 	                            intentTwo,
 	                            getResources().getString(R.string.lolcat_sendImage_label)));
 	        } catch (android.content.ActivityNotFoundException ex) {
-	            Log.w(TAG, "shareSavedImage: startActivity failed", ex);
+	            LolcatLog.w(TAG, "shareSavedImage: startActivity failed", ex);
 	            Toast.makeText(this, R.string.lolcat_share_failed, Toast.LENGTH_SHORT).show();
 	        }
 			return true;
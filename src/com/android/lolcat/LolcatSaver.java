@@ -0,0 +1,681 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+
+/**
+ * Saves lolcat images to the SD card for LolcatActivity.
+ *
+ * Each save runs the whole encode -> write -> publish pipeline on a
+ * single background thread (so saves are queued, never concurrent), and
+ * reports back exactly once, on the UI thread, via Callback.  Pending
+ * and in-progress saves can be cancelled, in which case the Callback is
+ * never invoked.
+ *
+ * A LolcatSaver only holds on to the application Context, so a save can
+ * outlive the activity that started it: across a configuration change,
+ * the dying activity detaches its Callback (see setCallback()) and hands
+ * the LolcatSaver to the next instance, which attaches its own.
+ *
+ * There are two ways of getting the saved image into the MediaStore
+ * (which is what gives us a Uri we can VIEW or share); see SaveMode.
+ *
+ * Besides the usual save of the (scaled-down) Bitmap being edited,
+ * exportFullResolution() saves a lolcat rendered at the full size of the
+ * original photo, and reuse() checks whether an earlier save is still on
+ * the SD card, both using the same queue and Callback.
+ */
+final class LolcatSaver {
+    private static final String TAG = "LolcatSaver";
+
+    // Location on the SD card for saving lolcat images
+    static final String LOLCAT_SAVE_DIRECTORY = "lolcats/";
+
+    // How long to wait for the MediaScanner before giving up on it.
+    private static final long SCAN_TIMEOUT_SECONDS = 30;
+
+    /**
+     * How a saved image gets into the MediaStore.
+     */
+    enum SaveMode {
+        /**
+         * Write the image to a file on the SD card ourselves, then insert
+         * a row for it into the MediaStore directly (as the Camera app
+         * does.)  This avoids binding to the MediaScanner service and
+         * waiting for it to scan the file, which often takes longer than
+         * the encode itself.  The row only goes in once the file is
+         * complete, so the gallery never sees a truncated image.
+         */
+        MEDIASTORE_INSERT,
+
+        /**
+         * Write the image to a file on the SD card ourselves, then ask the
+         * MediaScanner to scan it.
+         */
+        FILE_AND_SCAN
+    }
+
+    /**
+     * Receives the outcome of a save() call, on the UI thread.
+     */
+    interface Callback {
+        void onSaveFinished(Result result);
+    }
+
+    /**
+     * The outcome of a save, plus how long each stage took.
+     */
+    static final class Result {
+        boolean success;
+        String filename;
+        Uri uri;
+        int errorMessageResId;  // only meaningful if !success
+        boolean reused;  // from reuse(): success means the image is still there
+        SaveFormat format;
+        int quality;
+
+        int encodedBytes;
+        long encodeMillis;
+        long writeMillis;
+        long publishMillis;  // MediaStore insert or MediaScanner scan
+
+        @Override
+        public String toString() {
+            return "Result[" + (success ? "success" : "failure") + "; file " + filename
+                    + "; uri " + uri + "; " + format + "@" + quality + ", " + encodedBytes
+                    + " bytes; encode " + encodeMillis + " ms, write " + writeMillis
+                    + " ms, publish " + publishMillis + " ms]";
+        }
+    }
+
+    private final Context mContext;
+    private final BitmapPool mPool;
+    private SaveMode mSaveMode = SaveMode.MEDIASTORE_INSERT;
+    private SaveFormat mSaveFormat = SaveFormat.PNG;
+    private int mQuality = SaveFormat.PNG.getDefaultQuality();
+    private boolean mSync = true;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor;
+
+    // Only touched on the UI thread
+    private SaveTask mCurrentTask;
+    private Future<?> mCurrentFuture;
+    private Callback mCallback;
+    private Result mUndeliveredResult;  // finished while no Callback was set
+
+    /**
+     * @param pool where saved Bitmaps go when we're done with them.
+     */
+    public LolcatSaver(Context context, BitmapPool pool) {
+        mContext = context.getApplicationContext();
+        mPool = pool;
+        mExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "LolcatSaver");
+                    }
+                });
+    }
+
+    /**
+     * Sets how subsequent saves get into the MediaStore.  Must be called
+     * on the UI thread.
+     */
+    public void setSaveMode(SaveMode saveMode) {
+        mSaveMode = saveMode;
+    }
+
+    /**
+     * Sets the image format (and, for lossy formats, the quality from 0
+     * to 100) of subsequent saves.  Must be called on the UI thread.
+     *
+     * @throws IllegalArgumentException if this platform can't encode the format.
+     */
+    public void setSaveFormat(SaveFormat format, int quality) {
+        if (!format.isSupported()) {
+            throw new IllegalArgumentException(format + " isn't supported on this platform");
+        }
+        mSaveFormat = format;
+        mQuality = Math.max(0, Math.min(100, quality));
+    }
+
+    public SaveFormat getSaveFormat() {
+        return mSaveFormat;
+    }
+
+    public int getQuality() {
+        return mQuality;
+    }
+
+    /**
+     * Sets whether saves fsync() the image before renaming it into
+     * place.  Either way a crash can't leave a partial image behind;
+     * syncing also protects against losing power right after a save.
+     * Defaults to true.  Must be called on the UI thread.
+     */
+    public void setSyncOnSave(boolean sync) {
+        mSync = sync;
+    }
+
+    /**
+     * Sets who receives the outcome of the save in progress (and of
+     * later ones), or with null, holds on to the outcome until a Callback
+     * is set again.  If a save finished while there was no Callback, the
+     * new one gets its Result straight away.  Must be called on the UI
+     * thread.
+     */
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+        if (callback != null && mUndeliveredResult != null) {
+            Result result = mUndeliveredResult;
+            mUndeliveredResult = null;
+            callback.onSaveFinished(result);
+        }
+    }
+
+    /**
+     * Starts saving the specified Bitmap.  The LolcatSaver takes ownership
+     * of the Bitmap, and returns it to the BitmapPool once it's been
+     * encoded.  Must be called on the UI thread.
+     */
+    public void save(Bitmap bitmap, Callback callback) {
+        if (LolcatLog.V) LolcatLog.v(TAG, "save: " + bitmap);
+        mCallback = callback;
+        mUndeliveredResult = null;
+        mCurrentTask = new SaveTask(bitmap, mSaveMode, mSaveFormat, mQuality, mSync);
+        mCurrentFuture = mExecutor.submit(mCurrentTask);
+    }
+
+    /**
+     * Starts saving a full-resolution copy of the lolcat, as a PNG.  The
+     * image is rendered and encoded a strip at a time, straight into the
+     * file (see FullResolutionExporter), so it's always written with
+     * SaveMode.FILE_AND_SCAN, whatever the current save mode and format.
+     * Must be called on the UI thread.
+     */
+    public void exportFullResolution(FullResolutionExporter exporter, Callback callback) {
+        if (LolcatLog.V) LolcatLog.v(TAG, "exportFullResolution: " + exporter);
+        mCallback = callback;
+        mUndeliveredResult = null;
+        mCurrentTask = new SaveTask(exporter, mSync);
+        mCurrentFuture = mExecutor.submit(mCurrentTask);
+    }
+
+    /**
+     * Instead of saving a new copy of an image that's already been saved,
+     * checks (off the UI thread) that the earlier save is still on the SD
+     * card.  The Callback gets a Result with reused set, which succeeds,
+     * with the specified filename and Uri, if the file is still there.
+     * Must be called on the UI thread.
+     */
+    public void reuse(String filename, Uri uri, Callback callback) {
+        if (LolcatLog.V) LolcatLog.v(TAG, "reuse: " + filename);
+        mCallback = callback;
+        mUndeliveredResult = null;
+        mCurrentTask = new SaveTask(filename, uri, mSaveFormat, mQuality);
+        mCurrentFuture = mExecutor.submit(mCurrentTask);
+    }
+
+    /**
+     * @return true if a save has been started but hasn't finished yet.
+     */
+    public boolean isSaving() {
+        return mCurrentTask != null;
+    }
+
+    /**
+     * Cancels the save in progress, if any.  Must be called on the UI thread.
+     */
+    public void cancel() {
+        if (mCurrentTask != null) {
+            if (LolcatLog.V) LolcatLog.v(TAG, "cancel...");
+            mCurrentTask.mCancelled = true;
+            mCurrentFuture.cancel(true /* mayInterruptIfRunning */);
+            mCurrentTask = null;
+            mCurrentFuture = null;
+        }
+    }
+
+    /**
+     * Cancels any pending save and stops the worker thread.  The
+     * LolcatSaver can't be used after this.
+     */
+    public void shutdown() {
+        cancel();
+        mCallback = null;
+        mUndeliveredResult = null;
+        mExecutor.shutdownNow();
+    }
+
+    private class SaveTask implements Runnable {
+        final Bitmap mBitmap;
+        final FullResolutionExporter mExporter;  // instead of mBitmap
+        final String mReuseFilename;  // instead of either, with mReuseUri
+        final Uri mReuseUri;
+        final SaveMode mMode;
+        final SaveFormat mFormat;
+        final int mQuality;
+        final boolean mSync;
+        volatile boolean mCancelled;
+
+        SaveTask(Bitmap bitmap, SaveMode mode, SaveFormat format, int quality, boolean sync) {
+            mBitmap = bitmap;
+            mExporter = null;
+            mReuseFilename = null;
+            mReuseUri = null;
+            mMode = mode;
+            mFormat = format;
+            mQuality = quality;
+            mSync = sync;
+        }
+
+        SaveTask(FullResolutionExporter exporter, boolean sync) {
+            mBitmap = null;
+            mExporter = exporter;
+            mReuseFilename = null;
+            mReuseUri = null;
+            mMode = SaveMode.FILE_AND_SCAN;
+            mFormat = SaveFormat.PNG;
+            mQuality = SaveFormat.PNG.getDefaultQuality();
+            mSync = sync;
+        }
+
+        SaveTask(String reuseFilename, Uri reuseUri, SaveFormat format, int quality) {
+            mBitmap = null;
+            mExporter = null;
+            mReuseFilename = reuseFilename;
+            mReuseUri = reuseUri;
+            mMode = null;
+            mFormat = format;
+            mQuality = quality;
+            mSync = false;
+        }
+
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+            Result result = new Result();
+            result.format = mFormat;
+            result.quality = mQuality;
+            try {
+                if (mReuseFilename != null) {
+                    runReuse(result);
+                } else if (mExporter != null) {
+                    runExportPipeline(result);
+                } else {
+                    runPipeline(result);
+                }
+            } catch (InterruptedException e) {
+                if (LolcatLog.V) LolcatLog.v(TAG, "save interrupted.");
+                mCancelled = true;
+            } catch (RuntimeException e) {
+                // e.g. a SecurityException from the MediaProvider, or
+                // compress() on a recycled Bitmap.  Whatever it was, the
+                // UI still needs to hear that the save is over.
+                LolcatLog.w(TAG, "save failed", e);
+                fail(result, R.string.lolcat_save_failed);
+            } catch (OutOfMemoryError e) {
+                LolcatLog.w(TAG, "out of memory saving", e);
+                fail(result, R.string.lolcat_save_failed);
+            } finally {
+                // (If the save is cancelled before it even starts, the
+                // Bitmap is just left for the GC.)
+                mPool.put(mBitmap);
+            }
+            if (LolcatLog.V) LolcatLog.v(TAG, "save finished: " + result);
+
+            if (mCancelled) {
+                // Don't leave a half-written (or unpublished) image lying
+                // around.  (But an earlier save isn't ours to delete.)
+                if (result.reused) return;
+                if (result.uri != null) {
+                    mContext.getContentResolver().delete(result.uri, null, null);
+                }
+                if (result.filename != null) {
+                    new File(result.filename).delete();
+                }
+                return;
+            }
+
+            final Result finalResult = result;
+            mHandler.post(new Runnable() {
+                    public void run() {
+                        deliver(finalResult);
+                    }
+                });
+        }
+
+        /** Runs on the UI thread. */
+        void deliver(Result result) {
+            if (mCancelled || mCurrentTask != this) return;
+            mCurrentTask = null;
+            mCurrentFuture = null;
+            if (mCallback != null) {
+                mCallback.onSaveFinished(result);
+            } else {
+                mUndeliveredResult = result;
+            }
+        }
+
+        private void runReuse(Result result) {
+            result.reused = true;
+            long start = SystemClock.uptimeMillis();
+            File file = new File(mReuseFilename);
+            if (!file.isFile()) {
+                if (LolcatLog.V) LolcatLog.v(TAG, "- earlier save is gone: " + mReuseFilename);
+                fail(result, R.string.lolcat_save_failed);
+                return;
+            }
+            result.filename = mReuseFilename;
+            result.uri = mReuseUri;
+            result.encodedBytes = (int) file.length();
+            result.publishMillis = SystemClock.uptimeMillis() - start;
+            result.success = true;
+        }
+
+        private void runPipeline(Result result) throws InterruptedException {
+            // We need to make sure the SD card is available here BEFORE we try to create files.
+            if (!isExternalStorageWritable()) {
+                fail(result, R.string.lolcat_save_failed);
+                return;
+            }
+
+            // Save the bitmap to a file on the sdcard.
+            // (Based on similar code in MusicUtils.java.)
+            // TODO: Make this filename more human-readable?  Maybe "Lolcat-YYYY-MM-DD-HHMMSS.png"?
+            String filename = Environment.getExternalStorageDirectory()
+                    + "/" + LOLCAT_SAVE_DIRECTORY
+                    + String.valueOf(System.currentTimeMillis() + mFormat.getExtension());
+            if (LolcatLog.V) LolcatLog.v(TAG, "- filename: '" + filename + "'");
+
+            // Stage 1+2: encode and write.  The encoder streams straight
+            // into the file (through SafeFileWriter's buffer), so the
+            // encoded image is never held in memory in one piece; the
+            // file only appears under its real name once it's complete.
+            // encodeMillis covers compress(), and so most of the writing
+            // too; writeMillis is what's left: flush, fsync and rename.
+            if (!ensureParentDirectoryExists(filename)) {
+                LolcatLog.w(TAG, "Couldn't create directory for filename '" + filename + "'");
+                fail(result, R.string.lolcat_save_failed);
+                return;
+            }
+            File file = new File(filename);
+            SafeFileWriter writer = new SafeFileWriter(file, mSync);
+            try {
+                long start = SystemClock.uptimeMillis();
+                boolean success = mBitmap.compress(mFormat.getCompressFormat(), mQuality,
+                                                   writer.startWrite());
+                result.encodeMillis = SystemClock.uptimeMillis() - start;
+                if (!success) {
+                    LolcatLog.w(TAG, "Bitmap.compress failed: bitmap " + mBitmap);
+                    fail(result, R.string.lolcat_save_failed);
+                    return;
+                }
+                checkCancelled();
+
+                start = SystemClock.uptimeMillis();
+                writer.finishWrite();
+                result.writeMillis = SystemClock.uptimeMillis() - start;
+            } catch (IOException e) {
+                LolcatLog.w(TAG, "error writing file", e);
+                fail(result, R.string.lolcat_save_failed);
+                return;
+            } finally {
+                writer.abortWrite();
+            }
+            result.filename = filename;
+            result.encodedBytes = (int) file.length();
+            if (LolcatLog.V) LolcatLog.v(TAG, "- Saved!  filename = " + filename);
+            checkCancelled();
+
+            // Stage 3: publish the file we just wrote, which gives us a
+            // Uri we can then VIEW or share.
+            long start = SystemClock.uptimeMillis();
+            if (mMode == SaveMode.MEDIASTORE_INSERT) {
+                result.uri = insertIntoMediaStore(filename, mFormat, result.encodedBytes);
+                if (result.uri == null) {
+                    // Some MediaProviders won't let us do this; fall back
+                    // to the old-fashioned way.
+                    LolcatLog.w(TAG, "MediaStore insert failed; falling back to a scan.");
+                }
+            }
+            if (result.uri == null) {
+                result.uri = scanFile(filename, mFormat.getMimeType());
+            }
+            result.publishMillis = SystemClock.uptimeMillis() - start;
+            if (result.uri == null) {
+                LolcatLog.w(TAG, "scan failed for filename '" + filename + "'");
+                fail(result, R.string.lolcat_scan_failed);
+                return;
+            }
+
+            result.success = true;
+        }
+
+        /**
+         * Like runPipeline(), but the encode and write stages are one
+         * and the same: mExporter streams the image straight into the
+         * file as it renders it.
+         */
+        private void runExportPipeline(Result result) throws InterruptedException {
+            if (!isExternalStorageWritable()) {
+                fail(result, R.string.lolcat_save_failed);
+                return;
+            }
+
+            String filename = Environment.getExternalStorageDirectory()
+                    + "/" + LOLCAT_SAVE_DIRECTORY
+                    + String.valueOf(System.currentTimeMillis() + mFormat.getExtension());
+            if (LolcatLog.V) LolcatLog.v(TAG, "- filename: '" + filename + "'");
+
+            // Stage 1+2: render, encode and write.
+            long start = SystemClock.uptimeMillis();
+            if (!ensureParentDirectoryExists(filename)) {
+                LolcatLog.w(TAG, "Couldn't create directory for filename '" + filename + "'");
+                fail(result, R.string.lolcat_save_failed);
+                return;
+            }
+            File file = new File(filename);
+            SafeFileWriter writer = new SafeFileWriter(file, mSync);
+            try {
+                mExporter.export(writer.startWrite());
+                writer.finishWrite();
+            } catch (IOException e) {
+                LolcatLog.w(TAG, "error exporting to file", e);
+                fail(result, R.string.lolcat_save_failed);
+                return;
+            } catch (OutOfMemoryError e) {
+                // Even one strip of the original can be too much for a
+                // really small heap.
+                LolcatLog.w(TAG, "out of memory exporting to file", e);
+                fail(result, R.string.lolcat_save_failed);
+                return;
+            } finally {
+                writer.abortWrite();
+            }
+            result.filename = filename;
+            result.encodeMillis = SystemClock.uptimeMillis() - start;
+            result.encodedBytes = (int) file.length();
+            if (LolcatLog.V) LolcatLog.v(TAG, "- Exported!  filename = " + filename);
+            checkCancelled();
+
+            // Stage 3: scan, as for SaveMode.FILE_AND_SCAN.
+            start = SystemClock.uptimeMillis();
+            result.uri = scanFile(filename, mFormat.getMimeType());
+            result.publishMillis = SystemClock.uptimeMillis() - start;
+            if (result.uri == null) {
+                LolcatLog.w(TAG, "scan failed for filename '" + filename + "'");
+                fail(result, R.string.lolcat_scan_failed);
+                return;
+            }
+
+            result.success = true;
+        }
+
+        private void checkCancelled() throws InterruptedException {
+            if (mCancelled || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private static void fail(Result result, int errorMessageResId) {
+        result.success = false;
+        result.errorMessageResId = errorMessageResId;
+    }
+
+    /**
+     * Inserts a MediaStore row for the complete image file at the
+     * specified path.
+     *
+     * @return the Uri of the new row, or null if the MediaProvider
+     *         wouldn't take it.
+     */
+    private Uri insertIntoMediaStore(String filename, SaveFormat format, long size) {
+        File file = new File(filename);
+        long now = System.currentTimeMillis();
+        ContentValues values = new ContentValues();
+        String title = file.getName();
+        title = title.substring(0, title.length() - format.getExtension().length());
+        values.put(MediaStore.Images.Media.TITLE, title);
+        values.put(MediaStore.Images.Media.DISPLAY_NAME, file.getName());
+        values.put(MediaStore.Images.Media.MIME_TYPE, format.getMimeType());
+        values.put(MediaStore.Images.Media.DATE_TAKEN, now);
+        values.put(MediaStore.Images.Media.DATE_ADDED, now / 1000);
+        values.put(MediaStore.Images.Media.DATE_MODIFIED, now / 1000);
+        values.put(MediaStore.Images.Media.SIZE, size);
+        values.put(MediaStore.Images.Media.DATA, filename);
+
+        Uri uri;
+        try {
+            uri = mContext.getContentResolver().insert(
+                    MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+        } catch (RuntimeException e) {
+            // e.g. SecurityException, IllegalArgumentException
+            LolcatLog.w(TAG, "MediaStore insert threw", e);
+            return null;
+        }
+        if (LolcatLog.V) LolcatLog.v(TAG, "- inserted " + uri + " for " + filename);
+        return uri;
+    }
+
+    /**
+     * Scans the specified file with the MediaScanner, blocking until the
+     * scan completes.  This must not be called on the UI thread, since
+     * that's where the MediaScannerConnection gets connected.
+     *
+     * @return the Uri of the scanned file, or null if the scan failed.
+     */
+    private Uri scanFile(final String filename, final String mimeType) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Uri[] scannedUri = new Uri[1];
+        final MediaScannerConnection[] connection = new MediaScannerConnection[1];
+
+        connection[0] = new MediaScannerConnection(mContext,
+                new MediaScannerConnection.MediaScannerConnectionClient() {
+                    public void onMediaScannerConnected() {
+                        if (LolcatLog.V) LolcatLog.v(TAG, "- Requesting scan for: " + filename);
+                        connection[0].scanFile(filename, mimeType);
+                    }
+
+                    public void onScanCompleted(String path, Uri uri) {
+                        if (LolcatLog.V) LolcatLog.v(TAG, "onScanCompleted: " + path + ", " + uri);
+                        scannedUri[0] = uri;
+                        done.countDown();
+                    }
+                });
+        connection[0].connect();
+        try {
+            if (!done.await(SCAN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LolcatLog.w(TAG, "Timed out waiting for the MediaScanner.");
+            }
+        } finally {
+            connection[0].disconnect();
+        }
+        return scannedUri[0];
+    }
+
+    /**
+     * Code "borrowed" from developer guide on data storage:
+     * http://developer.android.com/guide/topics/data/data-storage.html#filesExternal
+     */
+    static boolean isExternalStorageWritable() {
+        String state = Environment.getExternalStorageState();
+        if (Environment.MEDIA_MOUNTED.equals(state)) {
+            // We can read and write the media
+            if (LolcatLog.V) LolcatLog.v(TAG, "Storage is read-write");
+            return true;
+        } else if (Environment.MEDIA_MOUNTED_READ_ONLY.equals(state)) {
+            // We can only read the media
+            LolcatLog.w(TAG, "Storage is read-only");
+            return false;
+        } else {
+            // Something else is wrong. It may be one of many other states, but all we need
+            //  to know is we can neither read nor write
+            LolcatLog.e(TAG, "Something is wrong with the SD card storage.");
+            return false;
+        }
+    }
+
+    /**
+     * Ensure that the directory containing the specified file exists on
+     * the SD card, creating it if necessary.  (We don't create the file
+     * itself up front any more: if the save then failed, we'd leave an
+     * empty or truncated image behind.)
+     *
+     * Based on ensureFileExists() in MediaProvider / MusicUtils.
+     *
+     * @return true if the directory already exists, or we
+     *         successfully created it.
+     */
+    private static boolean ensureParentDirectoryExists(String path) {
+        File directory = new File(path).getParentFile();
+        if (directory.isDirectory()) {
+            return true;
+        } else {
+            // we will not attempt to create the first directory in the path
+            // (for example, do not create /sdcard if the SD card is not mounted)
+            int secondSlash = path.indexOf('/', 1);
+            if (secondSlash < 1) return false;
+            String rootPath = path.substring(0, secondSlash);
+            if (!new File(rootPath).exists())
+                return false;
+            return directory.mkdirs() || directory.isDirectory();
+        }
+    }
+}
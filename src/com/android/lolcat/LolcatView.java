@@ -16,6 +16,9 @@
 
 package com.android.lolcat;
 
+import java.util.ArrayList;
+
+import android.content.ContentResolver;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
@@ -23,12 +26,9 @@ import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.Typeface;
-import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.text.TextUtils;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.MotionEvent;
 import android.widget.ImageView;
 
@@ -44,500 +44,597 @@ public class LolcatView extends ImageView {
     // Standard lolcat size is 500x375.  (But to preserve the original
     // image's aspect ratio, we rescale so that the larger dimension ends
     // up being 500 pixels.)
-    private static final float SCALED_IMAGE_MAX_DIMENSION = 500f;
+    static final int SCALED_IMAGE_MAX_DIMENSION = 500;
+
+    // Rendered caption sprites, shared by every LolcatView so that they
+    // survive orientation changes.
+    private static final int SPRITE_CACHE_MAX_BYTES = 2 * 1024 * 1024;
+    private static final CaptionSpriteCache sSpriteCache =
+            new CaptionSpriteCache(SPRITE_CACHE_MAX_BYTES);
 
-    // Other standard lolcat image parameters
-    private static final int FONT_SIZE = 44;
+    // Photo-sized Bitmaps we're done with, for reuse by the next photo
+    // or save.  (Big enough for a scaled photo, a flattened copy of it,
+    // and the decoder's intermediate Bitmap.)
+    private static final int BITMAP_POOL_MAX_BYTES = 4 * 1024 * 1024;
+    static final BitmapPool sBitmapPool = new BitmapPool(BITMAP_POOL_MAX_BYTES);
 
     private Bitmap mScaledBitmap;  // The photo picked by the user, scaled-down
-    private Bitmap mWorkingBitmap;  // The Bitmap we render the caption text into
-
-    // Current state of the captions.
-    // TODO: This array currently has a hardcoded length of 2 (for "top"
-    // and "bottom" captions), but eventually should support as many
-    // captions as the user wants to add.
-    private final Caption[] mCaptions = new Caption[] { new Caption(), new Caption() };
-
-    // State used while dragging a caption around
-    private boolean mDragging;
-    private int mDragCaptionIndex;  // index of the caption (in mCaptions[]) that's being dragged
-    private int mTouchDownX, mTouchDownY;
-    private final Rect mInitialDragBox = new Rect();
-    private final Rect mCurrentDragBox = new Rect();
+
+    // Lays out the captions and renders and draws their sprites
+    private final CaptionRenderer mRenderer = new CaptionRenderer(1f, sSpriteCache);
+
+    // Current state of the captions.  There can be any number of them,
+    // drawn in order (so later captions end up on top), but there are
+    // always at least two: TOP_CAPTION and BOTTOM_CAPTION, the ones the
+    // caption dialog edits.  Either may be empty.
+    static final int TOP_CAPTION = CaptionRenderer.TOP_CAPTION;
+    static final int BOTTOM_CAPTION = CaptionRenderer.BOTTOM_CAPTION;
+    static final int MIN_CAPTIONS = 2;
+    private final ArrayList<Caption> mCaptions = new ArrayList<Caption>();
+
+    // How far outside its bounding box a touch can land and still grab a
+    // caption, since touch accuracy is pretty poor on a real device, and
+    // the captions are fairly small.
+    private static final int TOUCH_POSITION_SLOP = 40;  // pixels
+
+    // Finds the caption under a touch, and keeps track of the one being
+    // dragged around; see onTouchEvent().  Its caption boxes are indexed
+    // like mCaptions, and rebuilt by renderCaptions().
+    private final CaptionDragTracker mDragTracker = new CaptionDragTracker(TOUCH_POSITION_SLOP);
+    private final float[] mImageMatrixValues = new float[9];  // used in onTouchEvent()
+
     private final RectF mCurrentDragBoxF = new RectF();  // used in onDraw()
     private final RectF mTransformedDragBoxF = new RectF();  // used in onDraw()
-    private final Rect mTmpRect = new Rect();
+    private final Paint mDragBoxPaint = createDragBoxPaint();  // used in onDraw()
+    private final int[] mTmpPosition = new int[2];  // used in renderCaptions()
 
     public LolcatView(Context context) {
         super(context);
+        resetCaptionList();
     }
 
     public LolcatView(Context context, AttributeSet attrs) {
         super(context, attrs);
+        resetCaptionList();
     }
 
     public LolcatView(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
+        resetCaptionList();
     }
 
-    public Bitmap getWorkingBitmap() {
-        return mWorkingBitmap;
+    private static Paint createDragBoxPaint() {
+        Paint p = new Paint();
+        p.setColor(0xFFFFFFFF);
+        p.setStyle(Paint.Style.STROKE);
+        p.setStrokeWidth(2f);
+        return p;
+    }
+
+    /**
+     * Sets the width of the black outline drawn around the caption text.
+     */
+    public void setCaptionStrokeWidth(float strokeWidth) {
+        mRenderer.setStrokeWidth(strokeWidth);
+        for (int i = 0; i < mCaptions.size(); i++) {
+            mCaptions.get(i).sprite = null;
+        }
+        renderCaptions();
+    }
+
+    /**
+     * Returns the photo with the current captions rendered into it, as a
+     * single Bitmap (suitable for saving to the SD card.)
+     *
+     * Onscreen, the captions are composited on top of the photo in
+     * onDraw(), so the flattened Bitmap is only built here, on demand.
+     * It comes from sBitmapPool, and belongs to the caller, who should
+     * put() it back in the pool when done with it.  This must be called
+     * on the UI thread.
+     *
+     * @return the flattened Bitmap, or null if there's no photo.
+     */
+    public Bitmap renderWorkingBitmap() {
+        if (mScaledBitmap == null) return null;
+        if (LolcatLog.V) LolcatLog.v(TAG, "renderWorkingBitmap: flattening captions...");
+        return mRenderer.render(mScaledBitmap, getCaptionDocument(), sBitmapPool);
+    }
+
+    /**
+     * @return a FullResolutionExporter that draws the current captions
+     *         onto the original of the photo currently displayed, or null
+     *         if there's no photo.
+     *
+     * @param photoUri the photo that the displayed Bitmap was decoded from.
+     */
+    public FullResolutionExporter newFullResolutionExporter(ContentResolver resolver,
+                                                            Uri photoUri) {
+        if (mScaledBitmap == null) return null;
+        return new FullResolutionExporter(resolver, photoUri, getCaptionDocument(),
+                                          mScaledBitmap.getWidth(), mScaledBitmap.getHeight());
     }
 
     public String getTopCaption() {
-        return mCaptions[0].caption;
+        return mCaptions.get(TOP_CAPTION).caption;
     }
 
     public String getBottomCaption() {
-        return mCaptions[1].caption;
+        return mCaptions.get(BOTTOM_CAPTION).caption;
+    }
+
+    /**
+     * @return the number of captions, including empty ones.  (This is
+     *         always at least 2; see TOP_CAPTION and BOTTOM_CAPTION.)
+     */
+    public int getCaptionCount() {
+        return mCaptions.size();
+    }
+
+    public String getCaption(int index) {
+        return mCaptions.get(index).caption;
+    }
+
+    /**
+     * @return the text of every caption, in drawing order.  Empty
+     *         captions are included (as ""), so that the indexes line up
+     *         with getCaption(), setCaption() and getCaptionDocument().
+     */
+    public String[] getCaptions() {
+        String[] captions = new String[mCaptions.size()];
+        for (int i = 0; i < captions.length; i++) {
+            captions[i] = mCaptions.get(i).caption;
+        }
+        return captions;
+    }
+
+    /**
+     * Returns a string that uniquely describes how the captions currently
+     * look: their text, their positions, and the text style.  If two
+     * fingerprints are equal (for the same photo), so are the rendered
+     * images.
+     */
+    public String getRenderFingerprint() {
+        StringBuilder sb = new StringBuilder();
+        CaptionTextRenderer textRenderer = mRenderer.getTextRenderer();
+        sb.append(textRenderer.getTextSize()).append('/')
+                .append(textRenderer.describeTypeface()).append('/')
+                .append(textRenderer.getStrokeWidth());
+        for (int i = 0; i < mCaptions.size(); i++) {
+            Caption c = mCaptions.get(i);
+            if (TextUtils.isEmpty(c.caption)) {
+                sb.append("|-");
+                continue;
+            }
+            // Length-prefix the text, so no caption can fake a delimiter.
+            sb.append('|').append(c.caption.length()).append(':').append(c.caption);
+            if (c.positionValid) {
+                sb.append('@').append(c.xpos).append(',').append(c.ypos);
+            }
+        }
+        return sb.toString();
     }
 
     /**
      * @return true if the user has set caption(s) for this LolcatView.
      */
     public boolean hasValidCaption() {
-        return !TextUtils.isEmpty(mCaptions[0].caption)
-                || !TextUtils.isEmpty(mCaptions[1].caption);
+        for (int i = 0; i < mCaptions.size(); i++) {
+            if (!TextUtils.isEmpty(mCaptions.get(i).caption)) return true;
+        }
+        return false;
     }
 
+    /**
+     * Releases the photo, so that its pixels can be reused right away
+     * (see sBitmapPool) rather than whenever the GC gets around to it.
+     * The ImageView stops drawing it first.
+     *
+     * Caption sprites belong to sSpriteCache, and are left there for the
+     * next photo.
+     */
     public void clear() {
-        mScaledBitmap = null;
-        mWorkingBitmap = null;
-        setImageDrawable(null);
-
-        // TODO: Anything else we need to do here to release resources
-        // associated with this object, like maybe the Bitmap that got
-        // created by the previous setImageURI() call?
-    }
-
-    public void loadFromUri(Uri uri) {
-        // For now, directly load the specified Uri.
-        setImageURI(uri);
-
-        // TODO: Rather than calling setImageURI() with the URI of
-        // the (full-size) photo, it would be better to turn the URI into
-        // a scaled-down Bitmap right here, and load *that* into ourself.
-        // I'd do that basically the same way that ImageView.setImageURI does it:
-        //     [ . . . ]
-        //     android.graphics.BitmapFactory.nativeDecodeStream(Native Method)
-        //     android.graphics.BitmapFactory.decodeStream(BitmapFactory.java:304)
-        //     android.graphics.drawable.Drawable.createFromStream(Drawable.java:635)
-        //     android.widget.ImageView.resolveUri(ImageView.java:477)
-        //     android.widget.ImageView.setImageURI(ImageView.java:281)
-        //     [ . . . ]
-        // But for now let's let ImageView do the work: we call setImageURI (above)
-        // and immediately pull out a Bitmap (below).
-
-        // Stash away a scaled-down bitmap.
-        // TODO: is it safe to assume this will always be a BitmapDrawable?
-        BitmapDrawable drawable = (BitmapDrawable) getDrawable();
-        Log.i(TAG, "===> current drawable: " + drawable);
-
-        Bitmap fullSizeBitmap = drawable.getBitmap();
-        Log.i(TAG, "===> fullSizeBitmap: " + fullSizeBitmap
-              + "  dimensions: " + fullSizeBitmap.getWidth()
-              + " x " + fullSizeBitmap.getHeight());
-
-        Bitmap.Config config = fullSizeBitmap.getConfig();
-        Log.i(TAG, "  - config = " + config);
-
-        // Standard lolcat size is 500x375.  But we don't want to distort
-        // the image if it isn't 4x3, so let's just set the larger
-        // dimension to 500 pixels and preserve the source aspect ratio.
-
-        float origWidth = fullSizeBitmap.getWidth();
-        float origHeight = fullSizeBitmap.getHeight();
-        float aspect = origWidth / origHeight;
-        Log.i(TAG, "  - aspect = " + aspect + "(" + origWidth + " x " + origHeight + ")");
-
-        float scaleFactor = ((aspect > 1.0) ? origWidth : origHeight) / SCALED_IMAGE_MAX_DIMENSION;
-        int scaledWidth = Math.round(origWidth / scaleFactor);
-        int scaledHeight = Math.round(origHeight / scaleFactor);
-
-        mScaledBitmap = Bitmap.createScaledBitmap(fullSizeBitmap,
-                                                  scaledWidth,
-                                                  scaledHeight,
-                                                  true /* filter */);
-        Log.i(TAG, "  ===> mScaledBitmap: " + mScaledBitmap
-              + "  dimensions: " + mScaledBitmap.getWidth()
-              + " x " + mScaledBitmap.getHeight());
-        Log.i(TAG, "       isMutable = " + mScaledBitmap.isMutable());
+        setScaledBitmap(null);
     }
 
     /**
-     * Sets the captions for this LolcatView.
+     * Disposes of a scaled-down photo that's no longer needed: back to
+     * sBitmapPool, unless it's (still) in the ScaledBitmapCache.
      */
-    public void setCaptions(String topCaption, String bottomCaption) {
-        Log.i(TAG, "setCaptions: '" + topCaption + "', '" + bottomCaption + "'");
-        if (topCaption == null) topCaption = "";
-        if (bottomCaption == null) bottomCaption = "";
+    static void releasePhotoBitmap(Bitmap bitmap) {
+        ScaledBitmapCache cache = ScaledBitmapCache.peekInstance();
+        if (cache != null && cache.containsBitmap(bitmap)) return;
+        sBitmapPool.put(bitmap);
+    }
 
-        mCaptions[0].caption = topCaption;
-        mCaptions[1].caption = bottomCaption;
+    /**
+     * Frees the memory held by the Bitmaps shared between LolcatViews.
+     * Call this when no LolcatView will need them again soon, i.e. when
+     * the activity is finishing or memory is low.
+     */
+    static void trimSharedBitmaps() {
+        if (LolcatLog.V) LolcatLog.v(TAG, "trimSharedBitmaps: " + sBitmapPool
+                                     + ", " + sSpriteCache);
+        sBitmapPool.evictAll();  // nothing outside the pool uses these
+        sSpriteCache.evictAll();  // just dropped; a Caption may still be drawing them
+        ScaledBitmapCache cache = ScaledBitmapCache.peekInstance();
+        if (cache != null) cache.evictAll();  // also just dropped
+    }
 
-        // If the user clears a caption, reset its position (so that it'll
-        // come back in the default position if the user re-adds it.)
-        if (TextUtils.isEmpty(mCaptions[0].caption)) {
-            Log.i(TAG, "- invalidating position of caption 0...");
-            mCaptions[0].positionValid = false;
+    /**
+     * Stops displaying the photo, but rather than releasing its Bitmap,
+     * hands it over to the caller (e.g. to keep it across a configuration
+     * change; see RetainedPhotoFragment.)
+     *
+     * @return the scaled-down photo, or null if there isn't one.
+     */
+    public Bitmap detachScaledBitmap() {
+        Bitmap bitmap = mScaledBitmap;
+        mScaledBitmap = null;
+        setScaledBitmap(null);
+        return bitmap;
+    }
+
+    /**
+     * Sets the (already scaled-down) photo for this LolcatView, and
+     * renders any captions we already have on top of it.
+     *
+     * The decoding itself happens off the UI thread; see PhotoLoader
+     * and ScaledBitmapDecoder.  The LolcatView takes ownership of the
+     * Bitmap, and returns it to sBitmapPool when it's replaced or cleared.
+     */
+    public void setScaledBitmap(Bitmap scaledBitmap) {
+        Bitmap oldBitmap = mScaledBitmap;
+        mScaledBitmap = scaledBitmap;
+        if (oldBitmap != null && oldBitmap != scaledBitmap) {
+            // Make sure the ImageView isn't still drawing it first.
+            setImageDrawable(null);
+            releasePhotoBitmap(oldBitmap);
         }
-        if (TextUtils.isEmpty(mCaptions[1].caption)) {
-            Log.i(TAG, "- invalidating position of caption 1...");
-            mCaptions[1].positionValid = false;
+        if (mScaledBitmap == null) {
+            setImageDrawable(null);
+            mDragTracker.reset(0, 0);
+            return;
         }
+        if (LolcatLog.V) LolcatLog.v(TAG, "  ===> mScaledBitmap: " + mScaledBitmap
+                                     + "  dimensions: " + mScaledBitmap.getWidth()
+                                     + " x " + mScaledBitmap.getHeight());
+        if (LolcatLog.V) LolcatLog.v(TAG, "       isMutable = " + mScaledBitmap.isMutable());
 
-        // And *any* time the captions change, blow away the cached
-        // caption bounding boxes to make sure we'll recompute them in
-        // renderCaptions().
-        mCaptions[0].captionBoundingBox = null;
-        mCaptions[1].captionBoundingBox = null;
+        setImageBitmap(mScaledBitmap);
 
-        renderCaptions(mCaptions);
+        // Captions may have been restored (or entered) while the photo
+        // was still loading.
+        if (hasValidCaption()) {
+            renderCaptions();
+        }
     }
 
     /**
-     * Clears the captions for this LolcatView.
+     * Sets the top and bottom captions for this LolcatView, leaving any
+     * others alone.
      */
-    public void clearCaptions() {
-        setCaptions("", "");
+    public void setCaptions(String topCaption, String bottomCaption) {
+        if (LolcatLog.V) LolcatLog.v(TAG, "setCaptions: '" + topCaption
+                                     + "', '" + bottomCaption + "'");
+        setCaptionText(mCaptions.get(TOP_CAPTION), topCaption);
+        setCaptionText(mCaptions.get(BOTTOM_CAPTION), bottomCaption);
+        renderCaptions();
     }
 
     /**
-     * Renders this LolcatView's current image captions into our
-     * underlying ImageView.
-     *
-     * We start with a scaled-down version of the photo originally chosed
-     * by the user (mScaledBitmap), make a mutable copy (mWorkingBitmap),
-     * render the specified strings into the bitmap, and show the
-     * resulting image onscreen.
+     * Replaces all the captions for this LolcatView.  (If there are fewer
+     * than two, the missing top/bottom captions are left empty.)
      */
-    public void renderCaptions(Caption[] captions) {
-        // TODO: handle an arbitrary array of strings, rather than
-        // assuming "top" and "bottom" captions.
+    public void setCaptions(String[] captions) {
+        if (LolcatLog.V) LolcatLog.v(TAG, "setCaptions: " + captions.length + " captions");
+        mCaptions.clear();
+        for (int i = 0; i < Math.max(MIN_CAPTIONS, captions.length); i++) {
+            Caption c = new Caption();
+            setCaptionText(c, (i < captions.length) ? captions[i] : null);
+            mCaptions.add(c);
+        }
+        renderCaptions();
+    }
 
-        String topString = captions[0].caption;
-        boolean topStringValid = !TextUtils.isEmpty(topString);
+    /**
+     * Changes the text of the specified caption, leaving it where it is
+     * (unless it's emptied, in which case it goes back to its default
+     * position the next time it's given some text.)
+     */
+    public void setCaption(int index, String text) {
+        setCaptionText(mCaptions.get(index), text);
+        renderCaptions();
+    }
 
-        String bottomString = captions[1].caption;
-        boolean bottomStringValid = !TextUtils.isEmpty(bottomString);
+    /**
+     * Adds a new caption, on top of all the others, in its default position.
+     *
+     * @return the index of the new caption.
+     */
+    public int addCaption(String text) {
+        Caption c = new Caption();
+        setCaptionText(c, text);
+        mCaptions.add(c);
+        renderCaptions();
+        return mCaptions.size() - 1;
+    }
 
-        Log.i(TAG, "renderCaptions: '" + topString + "', '" + bottomString + "'");
+    /**
+     * Removes the specified caption.  The top and bottom captions can't
+     * be removed, only emptied; the captions after the removed one move
+     * down an index.
+     */
+    public void removeCaption(int index) {
+        if (index < MIN_CAPTIONS) {
+            setCaptionText(mCaptions.get(index), null);
+        } else {
+            mCaptions.remove(index);
+        }
+        renderCaptions();
+    }
 
-        if (mScaledBitmap == null) return;
+    private static void setCaptionText(Caption c, String text) {
+        if (text == null) text = "";
+        c.setText(text);
 
-        // Make a fresh (mutable) copy of the scaled-down photo Bitmap,
-        // and render the desired text into it.
+        // If the user clears a caption, reset its position (so that it'll
+        // come back in the default position if the user re-adds it.)
+        if (TextUtils.isEmpty(c.caption)) {
+            c.positionValid = false;
+        }
 
-        Bitmap.Config config = mScaledBitmap.getConfig();
-        Log.i(TAG, "  - mScaledBitmap config = " + config);
+        // And *any* time the caption changes, blow away its cached
+        // bounding box to make sure we'll recompute it in renderCaptions().
+        c.captionBoundingBox = null;
+    }
 
-        mWorkingBitmap = mScaledBitmap.copy(config, true /* isMutable */);
-        Log.i(TAG, "  ===> mWorkingBitmap: " + mWorkingBitmap
-              + "  dimensions: " + mWorkingBitmap.getWidth()
-              + " x " + mWorkingBitmap.getHeight());
-        Log.i(TAG, "       isMutable = " + mWorkingBitmap.isMutable());
+    /**
+     * Clears the captions for this LolcatView, leaving just the (empty)
+     * top and bottom ones.
+     */
+    public void clearCaptions() {
+        resetCaptionList();
+        renderCaptions();
+    }
 
-        Canvas canvas = new Canvas(mWorkingBitmap);
-        Log.i(TAG, "- Canvas: " + canvas
-              + "  dimensions: " + canvas.getWidth() + " x " + canvas.getHeight());
+    private void resetCaptionList() {
+        mCaptions.clear();
+        for (int i = 0; i < MIN_CAPTIONS; i++) {
+            Caption c = new Caption();
+            c.setText("");
+            mCaptions.add(c);
+        }
+    }
 
-        Paint textPaint = new Paint();
-        textPaint.setAntiAlias(true);
-        textPaint.setTextSize(FONT_SIZE);
-        textPaint.setColor(0xFFFFFFFF);
-        Log.i(TAG, "- Paint: " + textPaint);
+    /**
+     * Renders this LolcatView's current image captions into our
+     * underlying ImageView.
+     *
+     * The scaled-down version of the photo originally chosen by the user
+     * (mScaledBitmap) is displayed as-is, and never modified.  Each
+     * caption is rendered into its own small "sprite" Bitmap (which only
+     * needs to be redone when the caption text changes), and onDraw()
+     * composites the sprites on top of the photo.  So re-rendering after
+     * an edit or a drag costs about as much as the text, rather than a
+     * full copy of the photo.
+     */
+    public void renderCaptions() {
+        if (LolcatLog.V) LolcatLog.v(TAG, "renderCaptions: " + mCaptions.size() + " captions");
 
-        Typeface face = textPaint.getTypeface();
-        Log.i(TAG, "- default typeface: " + face);
+        if (mScaledBitmap == null) {
+            mDragTracker.reset(0, 0);  // nothing to hit
+            return;
+        }
 
-        // The most standard font for lolcat captions is Impact.  (Arial
-        // Black is also common.)  Unfortunately we don't have either of
-        // these on the device by default; the closest we can do is
-        // DroidSans-Bold:
-        face = Typeface.DEFAULT_BOLD;
-        Log.i(TAG, "- new face: " + face);
-        textPaint.setTypeface(face);
+        final int bitmapWidth = mScaledBitmap.getWidth();
+        final int bitmapHeight = mScaledBitmap.getHeight();
 
         // Look up the positions of the captions, or if this is our very
         // first time rendering them, initialize the positions to default
-        // values.
-
-        final int edgeBorder = 20;
-        final int fontHeight = textPaint.getFontMetricsInt(null);
-        Log.i(TAG, "- fontHeight: " + fontHeight);
-
-        Log.i(TAG, "- Caption positioning:");
-        int topX = 0;
-        int topY = 0;
-        if (topStringValid) {
-            if (mCaptions[0].positionValid) {
-                topX = mCaptions[0].xpos;
-                topY = mCaptions[0].ypos;
-                Log.i(TAG, "  - TOP: already had a valid position: " + topX + ", " + topY);
-            } else {
-                // Start off with the "top" caption at the upper-left:
-                topX = edgeBorder;
-                topY = edgeBorder + (fontHeight * 3 / 4);
-                mCaptions[0].setPosition(topX, topY);
-                Log.i(TAG, "  - TOP: initializing to default position: " + topX + ", " + topY);
+        // values.  Then make sure each caption has an up-to-date sprite,
+        // and stash away bounding boxes for the captions if this is our
+        // first time rendering them.  (mRenderer does the actual work;
+        // all we keep track of is the results.)
+
+        mDragTracker.reset(bitmapWidth, bitmapHeight);
+        for (int i = 0; i < mCaptions.size(); i++) {
+            Caption c = mCaptions.get(i);
+            if (TextUtils.isEmpty(c.caption)) continue;
+
+            if (!c.positionValid) {
+                mRenderer.getDefaultPosition(i, c.caption, bitmapWidth, bitmapHeight,
+                                             mTmpPosition);
+                c.setPosition(mTmpPosition[0], mTmpPosition[1]);
+                if (LolcatLog.V) LolcatLog.v(TAG, "  - #" + i
+                                             + ": initializing to default position: "
+                                             + c.xpos + ", " + c.ypos);
             }
-        }
 
-        int bottomX = 0;
-        int bottomY = 0;
-        if (bottomStringValid) {
-            if (mCaptions[1].positionValid) {
-                bottomX = mCaptions[1].xpos;
-                bottomY = mCaptions[1].ypos;
-                Log.i(TAG, "  - Bottom: already had a valid position: "
-                      + bottomX + ", " + bottomY);
-            } else {
-                // Start off with the "bottom" caption at the lower-right:
-                final int bottomTextWidth = (int) textPaint.measureText(bottomString);
-                Log.i(TAG, "- bottomTextWidth (" + bottomString + "): " + bottomTextWidth);
-                bottomX = canvas.getWidth() - edgeBorder - bottomTextWidth;
-                bottomY = canvas.getHeight() - edgeBorder;
-                mCaptions[1].setPosition(bottomX, bottomY);
-                Log.i(TAG, "  - BOTTOM: initializing to default position: "
-                      + bottomX + ", " + bottomY);
+            if (c.sprite == null) {
+                c.sprite = mRenderer.getSprite(c.caption);
             }
-        }
 
-        // Finally, render the text.
-
-        // Standard lolcat captions are drawn in white with a heavy black
-        // outline (i.e. white fill, black stroke).  Our Canvas APIs can't
-        // do this exactly, though.
-        // We *could* get something decent-looking using a regular
-        // drop-shadow, like this:
-        //   textPaint.setShadowLayer(3.0f, 3, 3, 0xff000000);
-        // but instead let's simulate the "outline" style by drawing the
-        // text 4 separate times, with the shadow in a different direction
-        // each time.
-        // (TODO: This is a hack, and still doesn't look as good
-        // as a real "white fill, black stroke" style.)
-
-        final float shadowRadius = 2.0f;
-        final int shadowOffset = 2;
-        final int shadowColor = 0xff000000;
-
-        // TODO: Right now we use offsets of 2,2 / -2,2 / 2,-2 / -2,-2 .
-        // But 2,0 / 0,2 / -2,0 / 0,-2 might look better.
-
-        textPaint.setShadowLayer(shadowRadius, shadowOffset, shadowOffset, shadowColor);
-        if (topStringValid) canvas.drawText(topString, topX, topY, textPaint);
-        if (bottomStringValid) canvas.drawText(bottomString, bottomX, bottomY, textPaint);
-        //
-        textPaint.setShadowLayer(shadowRadius, -shadowOffset, shadowOffset, shadowColor);
-        if (topStringValid) canvas.drawText(topString, topX, topY, textPaint);
-        if (bottomStringValid) canvas.drawText(bottomString, bottomX, bottomY, textPaint);
-        //
-        textPaint.setShadowLayer(shadowRadius, shadowOffset, -shadowOffset, shadowColor);
-        if (topStringValid) canvas.drawText(topString, topX, topY, textPaint);
-        if (bottomStringValid) canvas.drawText(bottomString, bottomX, bottomY, textPaint);
-        //
-        textPaint.setShadowLayer(shadowRadius, -shadowOffset, -shadowOffset, shadowColor);
-        if (topStringValid) canvas.drawText(topString, topX, topY, textPaint);
-        if (bottomStringValid) canvas.drawText(bottomString, bottomX, bottomY, textPaint);
-
-        // Stash away bounding boxes for the captions if this
-        // is our first time rendering them.
-        // Watch out: the x/y position we use for drawing the text is
-        // actually the *lower* left corner of the bounding box...
-
-        int textWidth, textHeight;
-
-        if (topStringValid && mCaptions[0].captionBoundingBox == null) {
-            Log.i(TAG, "- Computing initial bounding box for top caption...");
-            textPaint.getTextBounds(topString, 0, topString.length(), mTmpRect);
-            textWidth = mTmpRect.width();
-            textHeight = mTmpRect.height();
-            Log.i(TAG, "-  text dimensions: " + textWidth + " x " + textHeight);
-            mCaptions[0].captionBoundingBox = new Rect(topX, topY - textHeight,
-                                                       topX + textWidth, topY);
-            Log.i(TAG, "-   RESULTING RECT: " + mCaptions[0].captionBoundingBox);
+            if (c.captionBoundingBox == null) {
+                c.captionBoundingBox = mRenderer.computeBoundingBox(c.caption, c.xpos, c.ypos);
+                if (LolcatLog.V) LolcatLog.v(TAG, "- initial bounding box for #" + i + ": "
+                                             + c.captionBoundingBox);
+            }
+            updateHitGrid(i);
         }
-        if (bottomStringValid && mCaptions[1].captionBoundingBox == null) {
-            Log.i(TAG, "- Computing initial bounding box for bottom caption...");
-            textPaint.getTextBounds(bottomString, 0, bottomString.length(), mTmpRect);
-            textWidth = mTmpRect.width();
-            textHeight = mTmpRect.height();
-            Log.i(TAG, "-  text dimensions: " + textWidth + " x " + textHeight);
-            mCaptions[1].captionBoundingBox = new Rect(bottomX, bottomY - textHeight,
-                                                       bottomX + textWidth, bottomY);
-            Log.i(TAG, "-   RESULTING RECT: " + mCaptions[1].captionBoundingBox);
+
+        // Finally, refresh the screen.
+        invalidate();
+    }
+
+    /**
+     * Tells mDragTracker where the specified caption's bounding box is.
+     */
+    private void updateHitGrid(int index) {
+        Rect box = mCaptions.get(index).captionBoundingBox;
+        if (box == null) {
+            mDragTracker.removeCaptionBox(index);
+            return;
         }
+        mDragTracker.setCaptionBox(index, box.left, box.top, box.right, box.bottom);
+    }
 
-        // Finally, display the new Bitmap to the user:
-        setImageBitmap(mWorkingBitmap);
+    /**
+     * Draws each caption's sprite into the specified Canvas, which must be
+     * in the coordinate system of mScaledBitmap.
+     *
+     * @param skipIndex index of a caption (in mCaptions) not to draw, or -1.
+     */
+    private void drawCaptionSprites(Canvas canvas, int skipIndex) {
+        for (int i = 0; i < mCaptions.size(); i++) {
+            Caption c = mCaptions.get(i);
+            if (i == skipIndex || c.sprite == null || !c.positionValid) continue;
+            mRenderer.drawSprite(canvas, c.sprite, c.xpos, c.ypos);
+        }
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
-        Log.i(TAG, "onDraw: " + canvas);
-        super.onDraw(canvas);
+        if (LolcatLog.V) LolcatLog.v(TAG, "onDraw: " + canvas);
+        super.onDraw(canvas);  // draws mScaledBitmap
+
+        if (mScaledBitmap == null) return;
+
+        // The caption sprites are in the coordinate system of our bitmap;
+        // to draw them on top of it we need to apply the transformation
+        // described by the ImageView's matrix *and* also account for our
+        // left and top padding.
 
-        if (mDragging) {
-            Log.i(TAG, "- dragging!  Drawing box at " + mCurrentDragBox);
+        Matrix m = getImageMatrix();
+
+        int saveCount = canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        canvas.concat(m);
+        final boolean dragging = mDragTracker.isDragging();
+        if (dragging) {
+            // The caption being dragged follows the finger: draw its
+            // (cached) sprite displaced by the current drag offset,
+            // rather than at its saved position.
+            int index = mDragTracker.getDragCaptionIndex();
+            drawCaptionSprites(canvas, index);
+            Caption c = mCaptions.get(index);
+            if (c.sprite != null) {
+                mRenderer.drawSprite(canvas, c.sprite, c.xpos + mDragTracker.getDragOffsetX(),
+                                     c.ypos + mDragTracker.getDragOffsetY());
+            }
+        } else {
+            drawCaptionSprites(canvas, -1 /* don't skip any */);
+        }
+        canvas.restoreToCount(saveCount);
 
-            // mCurrentDragBox is in the coordinate system of our bitmap;
+        if (dragging) {
+            // The drag box is in the coordinate system of our bitmap;
             // need to convert it into the coordinate system of the
             // overall LolcatView.
-            //
-            // To transform between coordinate systems we need to apply the
-            // transformation described by the ImageView's matrix *and* also
-            // account for our left and top padding.
 
-            Matrix m = getImageMatrix();
-
-            mCurrentDragBoxF.set(mCurrentDragBox);
+            mCurrentDragBoxF.set(mDragTracker.getDragBoxLeft(), mDragTracker.getDragBoxTop(),
+                                 mDragTracker.getDragBoxRight(), mDragTracker.getDragBoxBottom());
+            if (LolcatLog.V) LolcatLog.v(TAG, "- dragging!  Drawing box at " + mCurrentDragBoxF);
             m.mapRect(mTransformedDragBoxF, mCurrentDragBoxF);
             mTransformedDragBoxF.offset(getPaddingLeft(), getPaddingTop());
 
-            Paint p = new Paint();
-            p.setColor(0xFFFFFFFF);
-            p.setStyle(Paint.Style.STROKE);
-            p.setStrokeWidth(2f);
-            Log.i(TAG, "- Paint: " + p);
-
-            canvas.drawRect(mTransformedDragBoxF, p);
+            canvas.drawRect(mTransformedDragBoxF, mDragBoxPaint);
         }
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent ev) {
-        Log.i(TAG, "onTouchEvent: " + ev);
+        if (LolcatLog.V) LolcatLog.v(TAG, "onTouchEvent: " + ev);
 
         // Watch out: ev.getX() and ev.getY() are in the
         // coordinate system of the entire LolcatView, although
         // all the positions and rects we use here (like
-        // mCaptions[].captionBoundingBox) are relative to the bitmap
+        // Caption.captionBoundingBox) are relative to the bitmap
         // that's drawn inside the LolcatView.
         //
         // To transform between coordinate systems we need to apply the
         // transformation described by the ImageView's matrix *and* also
-        // account for our left and top padding.
-
-        Matrix m = getImageMatrix();
-
-        Matrix invertedMatrix = new Matrix();
-        m.invert(invertedMatrix);
+        // account for our left and top padding.  mDragTracker does the
+        // former (re-inverting the matrix only when it changes, which
+        // only happens when our size or Bitmap changes.)
 
-        float[] pointArray = new float[] { ev.getX() - getPaddingLeft(),
-                                           ev.getY() - getPaddingTop() };
-        Log.i(TAG, "  - BEFORE: pointArray = " + pointArray[0] + ", " + pointArray[1]);
-
-        // Transform the X/Y position of the DOWN event back into bitmap coords
-        invertedMatrix.mapPoints(pointArray);
-        Log.i(TAG, "  - AFTER:  pointArray = " + pointArray[0] + ", " + pointArray[1]);
-
-        int eventX = (int) pointArray[0];
-        int eventY = (int) pointArray[1];
+        getImageMatrix().getValues(mImageMatrixValues);
+        mDragTracker.setImageMatrix(mImageMatrixValues);
+        float x = ev.getX() - getPaddingLeft();
+        float y = ev.getY() - getPaddingTop();
 
         int action = ev.getAction();
         switch (action) {
             case MotionEvent.ACTION_DOWN:
-                if (mDragging) {
-                    Log.w(TAG, "Got an ACTION_DOWN, but we were already dragging!");
-                    mDragging = false;  // and continue as if we weren't already dragging...
+                if (mDragTracker.isDragging()) {
+                    // (mDragTracker continues as if we weren't already dragging...)
+                    LolcatLog.w(TAG, "Got an ACTION_DOWN, but we were already dragging!");
                 }
                 if (!hasValidCaption()) {
-                    Log.w(TAG, "No caption(s) yet; ignoring this ACTION_DOWN event.");
+                    mDragTracker.cancel();
+                    LolcatLog.w(TAG, "No caption(s) yet; ignoring this ACTION_DOWN event.");
                     return true;
                 }
 
                 // See if this DOWN event hit one of the caption bounding
-                // boxes.  If so, start dragging!
-                for (int i = 0; i < mCaptions.length; i++) {
-                    Rect boundingBox = mCaptions[i].captionBoundingBox;
-                    Log.i(TAG, "  - boundingBox #" + i + ": " + boundingBox + "...");
-
-                    if (boundingBox != null) {
-                        // Expand the bounding box by a fudge factor to make it
-                        // easier to hit (since touch accuracy is pretty poor on a
-                        // real device, and the captions are fairly small...)
-                        mTmpRect.set(boundingBox);
-
-                        final int touchPositionSlop = 40;  // pixels
-                        mTmpRect.inset(-touchPositionSlop, -touchPositionSlop);
-
-                        Log.i(TAG, "  - Checking expanded bounding box #" + i
-                              + ": " + mTmpRect + "...");
-                        if (mTmpRect.contains(eventX, eventY)) {
-                            Log.i(TAG, "    - Hit! " + mCaptions[i]);
-                            mDragging = true;
-                            mDragCaptionIndex = i;
-                            break;
-                        }
-                    }
-                }
-                if (!mDragging) {
-                    Log.i(TAG, "- ACTION_DOWN event didn't hit any captions; ignoring.");
+                // boxes (expanded by TOUCH_POSITION_SLOP to make them
+                // easier to hit.)  If so, start dragging!
+                int hit = mDragTracker.onDown(x, y);
+                if (hit < 0) {
+                    if (LolcatLog.V) LolcatLog.v(TAG, "- ACTION_DOWN didn't hit any captions.");
                     return true;
                 }
-
-                mTouchDownX = eventX;
-                mTouchDownY = eventY;
-
-                mInitialDragBox.set(mCaptions[mDragCaptionIndex].captionBoundingBox);
-                mCurrentDragBox.set(mCaptions[mDragCaptionIndex].captionBoundingBox);
+                if (LolcatLog.V) LolcatLog.v(TAG, "    - Hit! #" + hit + ": "
+                                             + mCaptions.get(hit));
 
                 invalidate();
 
                 return true;
 
             case MotionEvent.ACTION_MOVE:
-                if (!mDragging) {
-                    return true;
+                // onDraw() draws the dragged caption at its new position;
+                // nothing needs to be re-rendered.
+                if (mDragTracker.onMove(x, y)) {
+                    invalidate();
                 }
 
-                int displacementX = eventX - mTouchDownX;
-                int displacementY = eventY - mTouchDownY;
-
-                mCurrentDragBox.set(mInitialDragBox);
-                mCurrentDragBox.offset(displacementX, displacementY);
-
-                invalidate();
-
                 return true;
 
             case MotionEvent.ACTION_UP:
-                if (!mDragging) {
+                int dropped = mDragTracker.onUp(x, y);
+                if (dropped < 0) {
                     return true;
                 }
 
-                mDragging = false;
-
                 // Reposition the selected caption!
-                Log.i(TAG, "- Done dragging!  Repositioning caption #" + mDragCaptionIndex + ": "
-                      + mCaptions[mDragCaptionIndex]);
-
-                int offsetX = eventX - mTouchDownX;
-                int offsetY = eventY - mTouchDownY;
-                Log.i(TAG, "  - OFFSET: " + offsetX + ", " + offsetY);
-
-                // Reposition the the caption we just dragged, and blow
-                // away the cached bounding box to make sure it'll get
-                // recomputed in renderCaptions().
-                mCaptions[mDragCaptionIndex].xpos += offsetX;
-                mCaptions[mDragCaptionIndex].ypos += offsetY;
-                mCaptions[mDragCaptionIndex].captionBoundingBox = null;
+                int offsetX = mDragTracker.getDragOffsetX();
+                int offsetY = mDragTracker.getDragOffsetY();
+                if (LolcatLog.V) LolcatLog.v(TAG, "- Done dragging!  Repositioning caption #"
+                               + dropped + ": " + mCaptions.get(dropped));
+                if (LolcatLog.V) LolcatLog.v(TAG, "  - OFFSET: " + offsetX + ", " + offsetY);
+
+                // Reposition the the caption we just dragged.  Its sprite
+                // is unchanged, and its bounding box just moves along with
+                // it (mDragTracker's copy already has), so there's nothing
+                // to re-render.
+                Caption c = mCaptions.get(dropped);
+                c.xpos += offsetX;
+                c.ypos += offsetY;
+                if (c.captionBoundingBox != null) {
+                    c.captionBoundingBox.offset(offsetX, offsetY);
+                }
 
-                Log.i(TAG, "  - Updated caption: " + mCaptions[mDragCaptionIndex]);
+                if (LolcatLog.V) LolcatLog.v(TAG, "  - Updated caption: " + c);
 
                 // Finally, refresh the screen.
-                renderCaptions(mCaptions);
+                invalidate();
                 return true;
 
             // This case isn't expected to happen.
             case MotionEvent.ACTION_CANCEL:
-                if (!mDragging) {
-                    return true;
+                // Refresh the screen (which puts the caption back where it was.)
+                if (mDragTracker.cancel()) {
+                    invalidate();
                 }
-
-                mDragging = false;
-                // Refresh the screen.
-                renderCaptions(mCaptions);
                 return true;
 
             default:
@@ -546,68 +643,51 @@ public class LolcatView extends ImageView {
     }
 
     /**
-     * Returns an array containing the xpos/ypos of each Caption in our
-     * array of captions.  (This method and setCaptionPositions() are used
-     * by LolcatActivity to save and restore the activity state across
-     * orientation changes.)
+     * Returns a snapshot of all the captions and the caption style.
+     * (This method and setCaptionDocument() are used by LolcatActivity
+     * to save and restore the activity state across orientation changes.)
      */
-    public int[] getCaptionPositions() {
-        // TODO: mCaptions currently has a hardcoded length of 2 (for
-        // "top" and "bottom" captions).
-        int[] captionPositions = new int[4];
-
-        if (mCaptions[0].positionValid) {
-            captionPositions[0] = mCaptions[0].xpos;
-            captionPositions[1] = mCaptions[0].ypos;
-        } else {
-            captionPositions[0] = -1;
-            captionPositions[1] = -1;
-        }
-
-        if (mCaptions[1].positionValid) {
-            captionPositions[2] = mCaptions[1].xpos;
-            captionPositions[3] = mCaptions[1].ypos;
-        } else {
-            captionPositions[2] = -1;
-            captionPositions[3] = -1;
+    public CaptionDocument getCaptionDocument() {
+        CaptionDocument doc = new CaptionDocument(mRenderer.getStrokeWidth(),
+                                                  mCaptions.size());
+        for (int i = 0; i < mCaptions.size(); i++) {
+            Caption c = mCaptions.get(i);
+            doc.setCaption(i, c.caption, c.positionValid, c.xpos, c.ypos, c.captionBoundingBox);
         }
-
-        Log.i(TAG, "getCaptionPositions: returning " + captionPositions);
-        return captionPositions;
+        if (LolcatLog.V) LolcatLog.v(TAG, "getCaptionDocument: returning " + doc);
+        return doc;
     }
 
     /**
-     * Sets the xpos and ypos values of each Caption in our array based on
-     * the specified values.  (This method and getCaptionPositions() are
-     * used by LolcatActivity to save and restore the activity state
-     * across orientation changes.)
+     * Replaces all the captions (and the caption style) with the ones in
+     * the specified CaptionDocument, in one pass: saved bounding boxes
+     * are used as-is, sprites come from sSpriteCache where possible, and
+     * the captions are rendered exactly once.
      */
-    public void setCaptionPositions(int[] captionPositions) {
-        // TODO: mCaptions currently has a hardcoded length of 2 (for
-        // "top" and "bottom" captions).
-
-        Log.i(TAG, "setCaptionPositions(" + captionPositions + ")...");
-
-        if (captionPositions[0] < 0) {
-            mCaptions[0].positionValid = false;
-            Log.i(TAG, "- TOP caption: no valid position");
-        } else {
-            mCaptions[0].setPosition(captionPositions[0], captionPositions[1]);
-            Log.i(TAG, "- TOP caption: got valid position: "
-                  + mCaptions[0].xpos + ", " + mCaptions[0].ypos);
-        }
-
-        if (captionPositions[2] < 0) {
-            mCaptions[1].positionValid = false;
-            Log.i(TAG, "- BOTTOM caption: no valid position");
-        } else {
-            mCaptions[1].setPosition(captionPositions[2], captionPositions[3]);
-            Log.i(TAG, "- BOTTOM caption: got valid position: "
-                  + mCaptions[1].xpos + ", " + mCaptions[1].ypos);
+    public void setCaptionDocument(CaptionDocument doc) {
+        if (LolcatLog.V) LolcatLog.v(TAG, "setCaptionDocument(" + doc + ")...");
+
+        mRenderer.setStrokeWidth(doc.getStrokeWidth());
+
+        mCaptions.clear();
+        int count = Math.max(MIN_CAPTIONS, doc.getCaptionCount());
+        for (int i = 0; i < count; i++) {
+            Caption c = new Caption();
+            if (i < doc.getCaptionCount()) {
+                String text = doc.getText(i);
+                c.setText((text != null) ? text : "");
+                if (doc.hasPosition(i)) {
+                    c.setPosition(doc.getX(i), doc.getY(i));
+                    c.captionBoundingBox = doc.getBoundingBox(i);
+                }
+            } else {
+                c.setText("");
+            }
+            mCaptions.add(c);
         }
 
         // Finally, refresh the screen.
-        renderCaptions(mCaptions);
+        renderCaptions();
     }
 
     /**
@@ -619,6 +699,17 @@ public class LolcatView extends ImageView {
         public int xpos, ypos;
         public boolean positionValid;
 
+        // The rendered text.  (Also updated by renderCaptions().)
+        public CaptionSpriteCache.Sprite sprite;
+
+        public void setText(String text) {
+            if (!text.equals(caption)) {
+                caption = text;
+                // The old sprite no longer matches the text.
+                sprite = null;
+            }
+        }
+
         public void setPosition(int x, int y) {
             positionValid = true;
             xpos = x;
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Decodes photos for LolcatActivity on a background thread.
+ *
+ * Only the most recent load() matters: starting a new load cancels the
+ * one in flight (aborting its BitmapFactory decode if it's already
+ * running), and results from cancelled loads are never delivered.  The
+ * Callback is always invoked on the UI thread.
+ *
+ * Decoded photos also go into a ScaledBitmapCache, so that loading a
+ * recently picked photo again skips the decode entirely, and into a
+ * ScaledBitmapDiskCache, so that loading it after the process has been
+ * restarted only means decoding a small pre-scaled file.
+ */
+final class PhotoLoader {
+    private static final String TAG = "PhotoLoader";
+
+    // Since every load() cancels the previous one, there's never much
+    // work queued up; this bound just keeps a burst of picks from piling
+    // up stale tasks.
+    private static final int MAX_QUEUED_LOADS = 2;
+
+    /**
+     * Receives the result of a load() call, on the UI thread.
+     */
+    interface Callback {
+        /**
+         * @param bitmap the scaled-down photo, or null if it couldn't be decoded.
+         */
+        void onPhotoLoaded(Uri uri, Bitmap bitmap);
+    }
+
+    private final ContentResolver mResolver;
+    private final int mMaxDimension;
+    private final BitmapPool mPool;
+    private final ScaledBitmapCache mCache;
+    private final ScaledBitmapDiskCache mDiskCache;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor;
+
+    private LoadTask mCurrentTask;  // only touched on the UI thread
+
+    /**
+     * @param pool where decoded Bitmaps come from (and where results
+     *        nobody wants any more go back to.)
+     * @param cache where recently decoded photos are kept.
+     * @param diskCache where previously decoded photos are kept.
+     */
+    public PhotoLoader(ContentResolver resolver, int maxDimension, BitmapPool pool,
+                       ScaledBitmapCache cache, ScaledBitmapDiskCache diskCache) {
+        mResolver = resolver;
+        mMaxDimension = maxDimension;
+        mPool = pool;
+        mCache = cache;
+        mDiskCache = diskCache;
+        mExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_LOADS),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "LolcatPhotoLoader");
+                    }
+                },
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    /**
+     * Starts decoding the photo at the specified Uri, cancelling any
+     * load that's already in progress.  Must be called on the UI thread.
+     */
+    public void load(Uri uri, Callback callback) {
+        if (LolcatLog.V) LolcatLog.v(TAG, "load: " + uri);
+        cancel();
+        mCurrentTask = new LoadTask(uri, callback);
+        mExecutor.execute(mCurrentTask);
+    }
+
+    /**
+     * @return true if a load has been started but not delivered yet.
+     */
+    public boolean isLoading() {
+        return mCurrentTask != null;
+    }
+
+    /**
+     * Cancels the load in progress, if any.  Must be called on the UI thread.
+     */
+    public void cancel() {
+        if (mCurrentTask != null) {
+            if (LolcatLog.V) LolcatLog.v(TAG, "cancel: " + mCurrentTask.mUri);
+            mCurrentTask.cancel();
+            mCurrentTask = null;
+        }
+        mExecutor.purge();
+    }
+
+    /**
+     * Cancels any pending load and stops the worker thread.  The
+     * PhotoLoader can't be used after this.
+     */
+    public void shutdown() {
+        cancel();
+        mExecutor.shutdownNow();
+    }
+
+    private class LoadTask implements Runnable {
+        final Uri mUri;
+        final Callback mCallback;
+        final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+        volatile boolean mCancelled;
+
+        LoadTask(Uri uri, Callback callback) {
+            mUri = uri;
+            mCallback = callback;
+        }
+
+        void cancel() {
+            mCancelled = true;
+            mOptions.requestCancelDecode();
+        }
+
+        public void run() {
+            if (mCancelled) return;
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+            Bitmap bitmap = null;
+            String key = null;
+            Bitmap forDisk = null;
+            try {
+                key = ScaledBitmapCache.makeKey(mResolver, mUri, mMaxDimension);
+                if (key != null) bitmap = mCache.get(key);
+                if (bitmap != null) {
+                    if (LolcatLog.V) LolcatLog.v(TAG, "cache hit for " + mUri + ": " + mCache);
+                } else if (key != null && (bitmap = mDiskCache.get(key)) != null) {
+                    if (LolcatLog.V) LolcatLog.v(TAG, "disk cache hit for " + mUri);
+                    mCache.put(key, bitmap);
+                } else if (!mCancelled) {
+                    bitmap = ScaledBitmapDecoder.decode(mResolver, mUri, mMaxDimension,
+                                                        mOptions, mPool);
+                    if (key != null && bitmap != null) {
+                        mCache.put(key, bitmap);
+                        // Once the UI has the photo it can draw into it or
+                        // recycle it, so the disk cache gets its own
+                        // snapshot.  Copying is a memcpy; the encode
+                        // itself waits until the photo is on its way.
+                        forDisk = bitmap.copy(Bitmap.Config.ARGB_8888, false /* isMutable */);
+                    }
+                }
+            } catch (IOException e) {
+                LolcatLog.w(TAG, "error decoding " + mUri, e);
+            } catch (OutOfMemoryError e) {
+                LolcatLog.w(TAG, "out of memory decoding " + mUri, e);
+            } catch (RuntimeException e) {
+                // e.g. a SecurityException once we've lost our grant to
+                // read the Uri (say, after being restored from process
+                // death), or an IllegalArgumentException from the resolver
+                // or decoder.  Either way we still have to deliver, or
+                // the UI would wait for this load forever.
+                LolcatLog.w(TAG, "error loading " + mUri, e);
+            }
+
+            final Bitmap result = bitmap;
+            mHandler.post(new Runnable() {
+                    public void run() {
+                        deliver(result);
+                    }
+                });
+
+            // The photo's on its way to the UI; now we can take our time
+            // encoding it and writing it to the disk cache.
+            if (forDisk != null) {
+                try {
+                    mDiskCache.put(key, ScaledBitmapDiskCache.encode(forDisk));
+                } catch (OutOfMemoryError e) {
+                    LolcatLog.w(TAG, "out of memory caching " + mUri, e);
+                } finally {
+                    forDisk.recycle();
+                }
+            }
+        }
+
+        /** Runs on the UI thread. */
+        void deliver(Bitmap bitmap) {
+            if (mCancelled || mCurrentTask != this) {
+                if (LolcatLog.V) LolcatLog.v(TAG, "Dropping result of cancelled load: " + mUri);
+                if (bitmap != null) LolcatView.releasePhotoBitmap(bitmap);
+                return;
+            }
+            mCurrentTask = null;
+            mCallback.onPhotoLoaded(mUri, bitmap);
+        }
+    }
+}
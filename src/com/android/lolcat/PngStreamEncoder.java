@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a PNG one row at a time, so that an image far too big to fit
+ * in memory as a Bitmap (see FullResolutionExporter) can still be
+ * encoded.  Bitmap.compress() needs the whole image up front.
+ *
+ * The output is 8-bit RGB (alpha is dropped; photos are opaque), with
+ * every row using the "Sub" filter, which is cheap to compute and
+ * compresses photos noticeably better than no filter at all.
+ *
+ * Usage: construct, call writeRow() exactly once per row, top to
+ * bottom, then finish().  The OutputStream isn't closed.  Call
+ * release() in a finally block, so that the Deflater's native memory is
+ * freed even if the image is abandoned halfway through.
+ */
+final class PngStreamEncoder {
+
+    private static final byte[] SIGNATURE = {
+        (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'
+    };
+    private static final byte[] IHDR = { 'I', 'H', 'D', 'R' };
+    private static final byte[] IDAT = { 'I', 'D', 'A', 'T' };
+    private static final byte[] IEND = { 'I', 'E', 'N', 'D' };
+
+    private static final int BIT_DEPTH = 8;
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int FILTER_SUB = 1;
+    private static final int BYTES_PER_PIXEL = 3;
+
+    // Compressed data is split into IDAT chunks of (at most) this size.
+    private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+
+    private final OutputStream mOut;
+    private final int mWidth;
+    private final int mHeight;
+    private final CRC32 mCrc = new CRC32();
+    private final byte[] mChunkHeader = new byte[8];
+
+    private final Deflater mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final IdatOutputStream mIdatOut = new IdatOutputStream();
+    private final DeflaterOutputStream mDeflaterOut;
+    private final byte[] mRowBytes;
+    private int mRowsWritten;
+
+    public PngStreamEncoder(OutputStream out, int width, int height) throws IOException {
+        mOut = out;
+        mWidth = width;
+        mHeight = height;
+        mRowBytes = new byte[1 + width * BYTES_PER_PIXEL];
+        mDeflaterOut = new DeflaterOutputStream(mIdatOut, mDeflater,
+                                                IDAT_CHUNK_SIZE);
+
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = BIT_DEPTH;
+        header[9] = COLOR_TYPE_RGB;
+        header[10] = 0;  // compression method: deflate
+        header[11] = 0;  // filter method: adaptive
+        header[12] = 0;  // no interlace
+        boolean started = false;
+        try {
+            mOut.write(SIGNATURE);
+            writeChunk(IHDR, header, 0, header.length);
+            started = true;
+        } finally {
+            // Nobody gets to call release() if we throw.
+            if (!started) mDeflater.end();
+        }
+    }
+
+    /**
+     * Writes the next row of the image.
+     *
+     * @param argb at least width pixels, as returned by Bitmap.getPixels().
+     */
+    public void writeRow(int[] argb) throws IOException {
+        if (mRowsWritten >= mHeight) throw new IllegalStateException("too many rows");
+
+        byte[] row = mRowBytes;
+        row[0] = FILTER_SUB;
+        int prevR = 0, prevG = 0, prevB = 0;
+        for (int x = 0, i = 1; x < mWidth; x++) {
+            int pixel = argb[x];
+            int r = (pixel >> 16) & 0xff;
+            int g = (pixel >> 8) & 0xff;
+            int b = pixel & 0xff;
+            row[i++] = (byte) (r - prevR);
+            row[i++] = (byte) (g - prevG);
+            row[i++] = (byte) (b - prevB);
+            prevR = r;
+            prevG = g;
+            prevB = b;
+        }
+        mDeflaterOut.write(row);
+        mRowsWritten++;
+    }
+
+    /**
+     * Flushes the compressed data and writes the end of the PNG.
+     */
+    public void finish() throws IOException {
+        if (mRowsWritten != mHeight) {
+            throw new IllegalStateException("wrote " + mRowsWritten + " of " + mHeight + " rows");
+        }
+        try {
+            mDeflaterOut.finish();
+        } finally {
+            mDeflater.end();
+        }
+        mIdatOut.flushChunk();
+        writeChunk(IEND, null, 0, 0);
+        mOut.flush();
+    }
+
+    /**
+     * Frees the Deflater's native memory.  The encoder can't be used
+     * after this.  Safe to call more than once, and after finish().
+     */
+    public void release() {
+        mDeflater.end();
+    }
+
+    private void writeChunk(byte[] type, byte[] data, int offset, int length)
+            throws IOException {
+        putInt(mChunkHeader, 0, length);
+        System.arraycopy(type, 0, mChunkHeader, 4, 4);
+        mOut.write(mChunkHeader);
+
+        mCrc.reset();
+        mCrc.update(type);
+        if (length > 0) {
+            mOut.write(data, offset, length);
+            mCrc.update(data, offset, length);
+        }
+        byte[] crc = new byte[4];
+        putInt(crc, 0, (int) mCrc.getValue());
+        mOut.write(crc);
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Receives the deflated image data and writes it out as IDAT chunks.
+     */
+    private class IdatOutputStream extends OutputStream {
+        private final byte[] mBuffer = new byte[IDAT_CHUNK_SIZE];
+        private int mCount;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (mCount == mBuffer.length) flushChunk();
+            mBuffer[mCount++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (mCount == mBuffer.length) flushChunk();
+                int n = Math.min(length, mBuffer.length - mCount);
+                System.arraycopy(b, offset, mBuffer, mCount, n);
+                mCount += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (mCount > 0) {
+                writeChunk(IDAT, mBuffer, 0, mCount);
+                mCount = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import org.holoeverywhere.app.Fragment;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Bundle;
+
+/**
+ * Non-UI fragment that hangs on to LolcatActivity's scaled-down photo
+ * across configuration changes.
+ *
+ * Decoding the photo is by far the slowest thing we do, so rather than
+ * decoding it again every time the device is rotated, the dying activity
+ * parks the Bitmap here (see retain()) and the new one picks it back up
+ * (see takeBitmap().)  The caption sprites don't need this, since they
+ * live in LolcatView's static sprite cache.
+ *
+ * Likewise for a save in progress: the LolcatSaver is parked here (see
+ * retainSaver()) so rotating the device doesn't cancel the save.
+ */
+public class RetainedPhotoFragment extends Fragment {
+    static final String TAG = "RetainedPhotoFragment";
+
+    private Uri mPhotoUri;
+    private Bitmap mScaledBitmap;
+    private LolcatSaver mSaver;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true);
+    }
+
+    /**
+     * Takes ownership of the scaled-down photo for the specified Uri,
+     * until the next activity instance asks for it back.
+     */
+    void retain(Uri photoUri, Bitmap scaledBitmap) {
+        if (LolcatLog.V) LolcatLog.v(TAG, "retain: " + photoUri + ", " + scaledBitmap);
+        release();
+        mPhotoUri = photoUri;
+        mScaledBitmap = scaledBitmap;
+    }
+
+    /**
+     * @return the retained photo, if it's the one for the specified Uri,
+     *         or null.  The caller now owns the Bitmap; either way, the
+     *         fragment no longer holds on to anything.
+     */
+    Bitmap takeBitmap(Uri photoUri) {
+        Bitmap bitmap = null;
+        if (mScaledBitmap != null && mPhotoUri.equals(photoUri)) {
+            bitmap = mScaledBitmap;
+            mScaledBitmap = null;
+        }
+        if (LolcatLog.V) LolcatLog.v(TAG, "takeBitmap: " + photoUri + " ==> " + bitmap);
+        release();
+        return bitmap;
+    }
+
+    /**
+     * Takes ownership of the activity's LolcatSaver (which may be in the
+     * middle of a save) until the next activity instance asks for it back.
+     */
+    void retainSaver(LolcatSaver saver) {
+        if (LolcatLog.V) LolcatLog.v(TAG, "retainSaver: " + saver);
+        if (mSaver != null && mSaver != saver) mSaver.shutdown();
+        mSaver = saver;
+    }
+
+    /**
+     * @return the retained LolcatSaver, or null.  The caller now owns it.
+     */
+    LolcatSaver takeSaver() {
+        LolcatSaver saver = mSaver;
+        mSaver = null;
+        return saver;
+    }
+
+    @Override
+    public void onDestroy() {
+        // Since we're retained, this only happens when the activity is
+        // going away for good.
+        super.onDestroy();
+        release();
+        if (mSaver != null) {
+            mSaver.shutdown();
+            mSaver = null;
+        }
+    }
+
+    private void release() {
+        if (mScaledBitmap != null) {
+            LolcatView.releasePhotoBitmap(mScaledBitmap);
+            mScaledBitmap = null;
+        }
+        mPhotoUri = null;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a file so that it either appears complete, or not at all.
+ *
+ * The data goes to a hidden temp file next to the target (through a
+ * large buffer, so the encoder's many small writes don't each become a
+ * syscall), which is optionally fsync()ed and then renamed over the
+ * target.  If we crash or fail partway through, all that's left behind
+ * is the temp file, which the MediaScanner ignores; we never leave a
+ * truncated image in the gallery.
+ *
+ * This is the same idea as android.util.AtomicFile, which isn't
+ * available on the platforms we support.  Usage:
+ *
+ *     SafeFileWriter writer = new SafeFileWriter(file, true);
+ *     OutputStream out = writer.startWrite();
+ *     try {
+ *         ...write to out...
+ *         writer.finishWrite();
+ *     } finally {
+ *         writer.abortWrite();  // no-op if finishWrite() succeeded
+ *     }
+ */
+final class SafeFileWriter {
+    private static final String TAG = "SafeFileWriter";
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File mTarget;
+    private final File mTempFile;
+    private final boolean mSync;
+
+    private FileOutputStream mFileStream;
+    private BufferedOutputStream mBufferedStream;
+
+    /**
+     * @param sync if true, finishWrite() forces the data out to the
+     *        storage device before renaming.  That's slower, but means
+     *        the file survives a power loss as well as a crash.
+     */
+    public SafeFileWriter(File target, boolean sync) {
+        mTarget = target;
+        mTempFile = new File(target.getParentFile(), "." + target.getName() + ".tmp");
+        mSync = sync;
+    }
+
+    public File getTarget() {
+        return mTarget;
+    }
+
+    /**
+     * Opens the temp file for writing.  The returned stream should not
+     * be closed directly; call finishWrite() or abortWrite() instead.
+     */
+    public OutputStream startWrite() throws IOException {
+        if (mFileStream != null) throw new IllegalStateException("already writing");
+        mFileStream = new FileOutputStream(mTempFile);
+        mBufferedStream = new BufferedOutputStream(mFileStream, BUFFER_SIZE);
+        return mBufferedStream;
+    }
+
+    /**
+     * Flushes and closes the temp file, and renames it to the target.
+     * On failure, the temp file is deleted and the target is untouched.
+     */
+    public void finishWrite() throws IOException {
+        if (mFileStream == null) throw new IllegalStateException("not writing");
+        try {
+            mBufferedStream.flush();
+            if (mSync) {
+                mFileStream.getFD().sync();
+            }
+            mFileStream.close();
+            mFileStream = null;
+            mBufferedStream = null;
+            if (!mTempFile.renameTo(mTarget)) {
+                throw new IOException("Couldn't rename " + mTempFile + " to " + mTarget);
+            }
+        } finally {
+            abortWrite();
+        }
+    }
+
+    /**
+     * Abandons the write in progress, if any, deleting the temp file.
+     */
+    public void abortWrite() {
+        if (mFileStream != null) {
+            try {
+                mFileStream.close();
+            } catch (IOException e) {
+                LolcatLog.w(TAG, "error closing " + mTempFile, e);
+            }
+            mFileStream = null;
+            mBufferedStream = null;
+        }
+        if (mTempFile.exists() && !mTempFile.delete()) {
+            LolcatLog.w(TAG, "Couldn't delete " + mTempFile);
+        }
+    }
+}
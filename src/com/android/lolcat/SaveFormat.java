@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import android.graphics.Bitmap;
+
+/**
+ * The image formats we can save lolcats in.  Each one ties together the
+ * Bitmap.CompressFormat, mime type and filename extension, which must
+ * always be self-consistent.
+ *
+ * PNG is lossless but by far the slowest to encode, and produces huge
+ * files for photographic content; JPEG is a good deal faster and much
+ * smaller.  WEBP is only available on API 14 and later; see isSupported().
+ */
+enum SaveFormat {
+    PNG("PNG", "image/png", ".png", 100),
+    JPEG("JPEG", "image/jpeg", ".jpg", 90),
+    WEBP("WEBP", "image/webp", ".webp", 80);
+
+    private final String mCompressFormatName;
+    private final String mMimeType;
+    private final String mExtension;
+    private final int mDefaultQuality;
+
+    // Looked up lazily, by name, since referencing CompressFormat.WEBP
+    // directly would blow up on older platforms.
+    private Bitmap.CompressFormat mCompressFormat;
+    private boolean mCompressFormatResolved;
+
+    SaveFormat(String compressFormatName, String mimeType, String extension,
+               int defaultQuality) {
+        mCompressFormatName = compressFormatName;
+        mMimeType = mimeType;
+        mExtension = extension;
+        mDefaultQuality = defaultQuality;
+    }
+
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    /**
+     * @return the filename extension, including the leading '.'
+     */
+    public String getExtension() {
+        return mExtension;
+    }
+
+    /**
+     * @return a reasonable quality (0-100) to encode with.  (PNG ignores it.)
+     */
+    public int getDefaultQuality() {
+        return mDefaultQuality;
+    }
+
+    /**
+     * @return the Bitmap.CompressFormat for this format, or null if this
+     *         platform can't encode it.
+     */
+    public synchronized Bitmap.CompressFormat getCompressFormat() {
+        if (!mCompressFormatResolved) {
+            try {
+                mCompressFormat = Bitmap.CompressFormat.valueOf(mCompressFormatName);
+            } catch (IllegalArgumentException e) {
+                mCompressFormat = null;
+            }
+            mCompressFormatResolved = true;
+        }
+        return mCompressFormat;
+    }
+
+    public boolean isSupported() {
+        return getCompressFormat() != null;
+    }
+
+    /**
+     * @return the format with the specified mime type, or null if there isn't one.
+     */
+    public static SaveFormat fromMimeType(String mimeType) {
+        for (SaveFormat format : values()) {
+            if (format.mMimeType.equals(mimeType)) return format;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.io.File;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.support.v4.util.LruCache;
+
+/**
+ * Process-wide LRU cache of scaled-down photos, so that switching back
+ * to a recently picked photo doesn't mean decoding it all over again.
+ *
+ * Entries are keyed by the photo's Uri *and* its last-modified time (so
+ * an edited photo is never served stale), plus the size it was scaled
+ * to.  Photos whose last-modified time we can't find out aren't cached.
+ *
+ * The cache's Bitmaps may be on screen at any time, so nobody may
+ * recycle them or return them to the BitmapPool while they're cached
+ * (see LolcatView.releasePhotoBitmap()), and evicted ones are simply
+ * left for the GC.  All methods are thread-safe.
+ */
+final class ScaledBitmapCache {
+    private static final String TAG = "ScaledBitmapCache";
+
+    // Fraction of the app's heap (see ActivityManager.getMemoryClass())
+    // we're willing to spend on cached photos
+    private static final int MEMORY_CLASS_DIVISOR = 8;
+
+    private static ScaledBitmapCache sInstance;
+
+    private final LruCache<String, Bitmap> mCache;
+
+    /**
+     * @return the cache, creating it if necessary.
+     */
+    public static synchronized ScaledBitmapCache getInstance(Context context) {
+        if (sInstance == null) {
+            ActivityManager am =
+                    (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            int maxBytes = am.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_DIVISOR;
+            sInstance = new ScaledBitmapCache(maxBytes);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the cache, or null if nobody has created it yet.
+     */
+    public static synchronized ScaledBitmapCache peekInstance() {
+        return sInstance;
+    }
+
+    private ScaledBitmapCache(int maxBytes) {
+        if (LolcatLog.V) LolcatLog.v(TAG, "creating with budget of " + maxBytes + " bytes");
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+    }
+
+    /**
+     * Builds the cache key for a photo.  This may do I/O, so it shouldn't
+     * be called on the UI thread.
+     *
+     * @return the key, or null if the photo shouldn't be cached.
+     */
+    public static String makeKey(ContentResolver resolver, Uri uri, int maxDimension) {
+        long lastModified = getLastModified(resolver, uri);
+        if (lastModified <= 0) return null;
+        return uri + "@" + lastModified + "/" + maxDimension;
+    }
+
+    public Bitmap get(String key) {
+        return mCache.get(key);
+    }
+
+    public void put(String key, Bitmap bitmap) {
+        mCache.put(key, bitmap);
+    }
+
+    /**
+     * @return true if the specified Bitmap is in the cache.
+     */
+    public boolean containsBitmap(Bitmap bitmap) {
+        return mCache.snapshot().containsValue(bitmap);
+    }
+
+    public void evictAll() {
+        mCache.evictAll();
+    }
+
+    private static long getLastModified(ContentResolver resolver, Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            return new File(uri.getPath()).lastModified();
+        }
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(uri, new String[] { MediaStore.MediaColumns.DATE_MODIFIED },
+                                    null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } catch (RuntimeException e) {
+            // Not every provider knows about DATE_MODIFIED.
+            if (LolcatLog.V) LolcatLog.v(TAG, "no last-modified time for " + uri + ": " + e);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ScaledBitmapCache[" + mCache.size() + "/" + mCache.maxSize() + " bytes; hits "
+                + mCache.hitCount() + ", misses " + mCache.missCount() + "]";
+    }
+}
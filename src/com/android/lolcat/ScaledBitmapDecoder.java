@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Build;
+
+/**
+ * Decodes a (potentially huge) photo straight down to lolcat size.
+ *
+ * Rather than letting ImageView.setImageURI() decode the full-resolution
+ * photo and then scaling *that* down, we read just the image bounds
+ * first, pick a power-of-two inSampleSize that gets the decoder close to
+ * the target size, and only then decode the pixels.  The full-size
+ * Bitmap never exists in memory, so a 12 megapixel photo costs only a
+ * few times as much heap as the 500 pixel result (see ImageScaling for
+ * the exact bound.)
+ *
+ * If given a BitmapPool, we also avoid allocating new Bitmaps where we
+ * can: the decoder writes into a pooled Bitmap (on platforms where that
+ * works), and the final rescale draws into one.
+ */
+final class ScaledBitmapDecoder {
+    private static final String TAG = "ScaledBitmapDecoder";
+
+    private ScaledBitmapDecoder() { }
+
+    /**
+     * Decodes the image at the specified Uri so that its larger dimension
+     * ends up being maxDimension pixels, preserving the source aspect
+     * ratio.
+     *
+     * @return the scaled-down Bitmap, or null if the image couldn't be decoded.
+     */
+    public static Bitmap decode(ContentResolver resolver, Uri uri, int maxDimension)
+            throws IOException {
+        return decode(resolver, uri, maxDimension, new BitmapFactory.Options());
+    }
+
+    /**
+     * Same as decode(ContentResolver, Uri, int), but uses the specified
+     * Options object, so that another thread can abort the decode by
+     * calling options.requestCancelDecode().
+     *
+     * @return the scaled-down Bitmap, or null if the image couldn't be
+     *         decoded (or the decode was cancelled.)
+     */
+    public static Bitmap decode(ContentResolver resolver, Uri uri, int maxDimension,
+                                BitmapFactory.Options options) throws IOException {
+        return decode(resolver, uri, maxDimension, options, null);
+    }
+
+    /**
+     * Same as decode(ContentResolver, Uri, int, BitmapFactory.Options),
+     * but takes intermediate and result Bitmaps from the specified pool
+     * where possible, and returns intermediate Bitmaps to it.  The
+     * result should eventually be returned to the pool too.
+     *
+     * @param pool the BitmapPool to use, or null to always allocate new Bitmaps.
+     */
+    public static Bitmap decode(ContentResolver resolver, Uri uri, int maxDimension,
+                                BitmapFactory.Options options, BitmapPool pool)
+            throws IOException {
+        // Pass 1: just read the image dimensions.
+        options.inJustDecodeBounds = true;
+        decodeStream(resolver, uri, options);
+
+        int origWidth = options.outWidth;
+        int origHeight = options.outHeight;
+        if (LolcatLog.V) LolcatLog.v(TAG, "decode: " + uri
+                                     + "  dimensions: " + origWidth + " x " + origHeight);
+        if (origWidth <= 0 || origHeight <= 0) {
+            LolcatLog.w(TAG, "Couldn't read image bounds for " + uri);
+            return null;
+        }
+
+        if (options.mCancel) {
+            if (LolcatLog.V) LolcatLog.v(TAG, "  - cancelled after reading bounds.");
+            return null;
+        }
+
+        // Pass 2: decode the pixels, subsampled as far as we can without
+        // dropping below the target size.
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = ImageScaling.computeSampleSize(origWidth, origHeight, maxDimension);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap sampledBitmap = decodeSampled(resolver, uri, options, pool,
+                                             origWidth, origHeight);
+        if (sampledBitmap == null) {
+            LolcatLog.w(TAG, "BitmapFactory couldn't decode " + uri
+                  + (options.mCancel ? " (cancelled)" : ""));
+            return null;
+        }
+        if (LolcatLog.V) LolcatLog.v(TAG, "  - inSampleSize " + options.inSampleSize
+                                     + " ==> sampledBitmap: " + sampledBitmap.getWidth()
+                                     + " x " + sampledBitmap.getHeight());
+
+        // Finally, a (cheap) exact rescale from the subsampled size to
+        // the target size.
+        int[] scaledSize = ImageScaling.computeScaledSize(origWidth, origHeight, maxDimension);
+        if (sampledBitmap.getWidth() == scaledSize[0]
+                && sampledBitmap.getHeight() == scaledSize[1]) {
+            return sampledBitmap;
+        }
+        if (pool == null) {
+            Bitmap scaledBitmap = Bitmap.createScaledBitmap(sampledBitmap,
+                                                            scaledSize[0],
+                                                            scaledSize[1],
+                                                            true /* filter */);
+            if (scaledBitmap != sampledBitmap) {
+                sampledBitmap.recycle();
+            }
+            return scaledBitmap;
+        }
+        Bitmap scaledBitmap = pool.get(scaledSize[0], scaledSize[1], Bitmap.Config.ARGB_8888);
+        new Canvas(scaledBitmap).drawBitmap(sampledBitmap, null,
+                                            new Rect(0, 0, scaledSize[0], scaledSize[1]),
+                                            new Paint(Paint.FILTER_BITMAP_FLAG));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+            // Otherwise an opaque photo would come out looking like it
+            // might have transparent pixels (see ScaledBitmapDiskCache.)
+            scaledBitmap.setHasAlpha(sampledBitmap.hasAlpha());
+        }
+        pool.put(sampledBitmap);
+        return scaledBitmap;
+    }
+
+    /**
+     * Decodes the pixels, into a pooled Bitmap if we can.
+     */
+    private static Bitmap decodeSampled(ContentResolver resolver, Uri uri,
+                                        BitmapFactory.Options options, BitmapPool pool,
+                                        int origWidth, int origHeight)
+            throws FileNotFoundException {
+        if (pool == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return decodeStream(resolver, uri, options);
+        }
+
+        // Make the result mutable, so that it can go back into the pool
+        // when we're done with it.
+        options.inMutable = true;
+        if (BitmapPool.canReuseAnySizeForDecode()) {
+            int[] sampledSize = ImageScaling.computeSampledSize(origWidth, origHeight,
+                                                                options.inSampleSize);
+            options.inBitmap = pool.getForInBitmap(sampledSize[0] * sampledSize[1] * 4);
+        }
+
+        Bitmap reusable = options.inBitmap;
+        Bitmap bitmap;
+        try {
+            bitmap = decodeStream(resolver, uri, options);
+        } catch (IllegalArgumentException e) {
+            // The decoder couldn't use the pooled Bitmap after all (e.g.
+            // our size estimate was off); just try again without it.
+            if (LolcatLog.V) LolcatLog.v(TAG, "  - inBitmap rejected: " + e);
+            options.inBitmap = null;
+            bitmap = decodeStream(resolver, uri, options);
+        }
+        options.inBitmap = null;
+        if (reusable != null && reusable != bitmap) {
+            pool.put(reusable);
+        }
+        return bitmap;
+    }
+
+    private static Bitmap decodeStream(ContentResolver resolver, Uri uri,
+                                       BitmapFactory.Options options)
+            throws FileNotFoundException {
+        InputStream in = resolver.openInputStream(uri);
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                LolcatLog.w(TAG, "error closing " + uri, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.lolcat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * On-disk cache of scaled-down photos, in the app's cache directory, so
+ * that after a cold start (or after the process was killed in the
+ * background) we can load a small pre-scaled file instead of decoding a
+ * multi-megabyte original all over again.
+ *
+ * Keys are the same as ScaledBitmapCache's (photo Uri, last-modified
+ * time and target size); each entry is a JPEG (or, for photos with
+ * transparent pixels, a PNG) file named after a hash of its key.  Files are written atomically (see SafeFileWriter), and
+ * "touched" on every hit, so that when the cache grows past its size cap
+ * we can evict the least recently used ones by modification time.
+ *
+ * All methods do disk I/O, so none of them should be called on the UI
+ * thread.  They're synchronized, so it's safe to share an instance.
+ */
+final class ScaledBitmapDiskCache {
+    private static final String TAG = "ScaledBitmapDiskCache";
+
+    // JPEG is a lot smaller and faster to decode than PNG, and at this
+    // quality the difference from the original scaled photo is invisible.
+    // It can't do transparency, though, so photos with an alpha channel
+    // are kept as PNGs.  (BitmapFactory works out which it's reading, so
+    // both kinds of file share one extension.)
+    private static final int JPEG_QUALITY = 95;
+    private static final String EXTENSION = ".img";
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    public ScaledBitmapDiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cached photo for the specified key, or null if there
+     *         isn't one.  The Bitmap is mutable where the platform allows
+     *         it, so it can go back into the BitmapPool later.
+     */
+    public synchronized Bitmap get(String key) {
+        File file = fileForKey(key);
+        if (!file.isFile()) return null;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            options.inMutable = true;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) {
+            LolcatLog.w(TAG, "Couldn't decode " + file + "; deleting it.");
+            file.delete();
+            return null;
+        }
+        // Mark it as recently used.
+        file.setLastModified(System.currentTimeMillis());
+        if (LolcatLog.V) LolcatLog.v(TAG, "hit: " + key + " ==> " + file);
+        return bitmap;
+    }
+
+    /**
+     * Encodes the specified photo for the cache: as a JPEG, unless it
+     * has transparent pixels.  This can be called without holding any
+     * lock, leaving just the write for put(); the Bitmap mustn't change
+     * while it's being encoded.
+     *
+     * @return the encoded photo, or null if it couldn't be encoded.
+     */
+    public static byte[] encode(Bitmap bitmap) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean success = bitmap.hasAlpha()
+                ? bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)
+                : bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        if (!success) {
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Stores a photo (as returned by encode()) in the cache, evicting old
+     * entries if that puts the cache over its size cap.
+     */
+    public synchronized void put(String key, byte[] encoded) {
+        if (encoded == null || encoded.length > mMaxBytes) return;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            LolcatLog.w(TAG, "Couldn't create " + mDirectory);
+            return;
+        }
+
+        File file = fileForKey(key);
+        // No need to fsync: losing a cache entry just costs a decode.
+        SafeFileWriter writer = new SafeFileWriter(file, false /* sync */);
+        try {
+            writer.startWrite().write(encoded);
+            writer.finishWrite();
+        } catch (IOException e) {
+            LolcatLog.w(TAG, "error writing " + file, e);
+            return;
+        } finally {
+            writer.abortWrite();
+        }
+        if (LolcatLog.V) LolcatLog.v(TAG, "put: " + key + " ==> " + file
+                                     + " (" + encoded.length + " bytes)");
+        trim();
+    }
+
+    /**
+     * Deletes every entry.
+     */
+    public synchronized void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+        for (File f : files) {
+            f.delete();
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits in
+     * mMaxBytes.
+     */
+    private void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+
+        long totalBytes = 0;
+        for (File f : files) {
+            totalBytes += f.length();
+        }
+        if (totalBytes <= mMaxBytes) return;
+
+        Arrays.sort(files, new Comparator<File>() {
+                public int compare(File a, File b) {
+                    long diff = a.lastModified() - b.lastModified();
+                    return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+                }
+            });
+        for (int i = 0; i < files.length && totalBytes > mMaxBytes; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                if (LolcatLog.V) LolcatLog.v(TAG, "evicted " + files[i]);
+                totalBytes -= length;
+            }
+        }
+    }
+
+    private File fileForKey(String key) {
+        return new File(mDirectory, hash(key) + EXTENSION);
+    }
+
+    private static String hash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);  // every platform has MD5
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);  // ...and UTF-8
+        }
+    }
+}